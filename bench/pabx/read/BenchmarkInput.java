@@ -0,0 +1,92 @@
+package pabx.read;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import pabx.GenerateEventStream;
+import pabx.read.Tokenizer.Token;
+
+/**
+ * Input shared by the benchmarks, generated by GenerateEventStream
+ *
+ * 'events' is the number of lines of the stream and 'mix' the proportion
+ * of each type of event
+ */
+@State(Scope.Benchmark)
+public class BenchmarkInput {
+	@Param({ "10000", "1000000" })
+	public int events;
+
+	@Param({ "uniform", "dial", "calls" })
+	public String mix;
+
+	static int nbPhones = 100;
+
+	String text;
+	char[] chars;
+	byte[] bytes;
+	Token[] tokens;
+	File file;
+	/**
+	 * Same commands saved by BinaryCommandWriter
+	 */
+	File binary;
+
+	static int[] weights(String mix) {
+		// Idle, Attempt, Connect, Dial
+		switch (mix) {
+		case "dial":
+			return new int[] { 1, 1, 1, 8 };
+		case "calls":
+			return new int[] { 2, 4, 4, 1 };
+		default:
+			return new int[] { 1, 1, 1, 1 };
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		text = GenerateEventStream.generate(nbPhones, events, weights(mix));
+		chars = text.toCharArray();
+		bytes = text.getBytes(StandardCharsets.US_ASCII);
+
+		final List<Token> list = new ArrayList<Token>();
+		TableTokenizer t = new TableTokenizer(new Input<Token>() {
+			@Override
+			public void receive(Token token) {
+				list.add(token);
+			}
+		});
+		t.receive(chars, 0, chars.length);
+		tokens = list.toArray(new Token[list.size()]);
+
+		file = File.createTempFile("pabx-bench", ".txt");
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(bytes);
+		fos.close();
+
+		binary = File.createTempFile("pabx-bench", ".bin");
+		binary.deleteOnExit();
+		BinaryCommandWriter writer = new BinaryCommandWriter(binary.getPath());
+		new FusedScanner(writer).receive(chars, 0, chars.length);
+		writer.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+		binary.delete();
+	}
+}
@@ -0,0 +1,21 @@
+package pabx.read;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks with the GC profiler so the allocation rate is reported
+ * next to the throughput, the usual JMH options can be given on the command line
+ *
+ * java -jar target/benchmarks.jar Pipeline -p events=1000000
+ */
+public class Benchmarks {
+	public static void main(String[] argv) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions options = new CommandLineOptions(argv);
+		new Runner(new OptionsBuilder().parent(options).addProfiler(GCProfiler.class).build()).run();
+	}
+}
@@ -0,0 +1,56 @@
+package pabx.read;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pabx.read.Parser.Command;
+import pabx.read.Tokenizer.Token;
+
+/**
+ * Secondary results of the benchmarks, JMH reports them as rates
+ * so 'bytes' is the throughput in bytes/s and 'commands' in commands/s
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Counters {
+	public long bytes;
+	public long tokens;
+	public long commands;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		bytes = 0;
+		tokens = 0;
+		commands = 0;
+	}
+
+	/**
+	 * Sink counting the tokens
+	 */
+	Input<Token> tokenSink(final Blackhole bh) {
+		return new Input<Token>() {
+			@Override
+			public void receive(Token t) {
+				tokens++;
+				bh.consume(t);
+			}
+		};
+	}
+
+	/**
+	 * Sink counting the commands
+	 */
+	Input<Command> commandSink(final Blackhole bh) {
+		return new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				commands++;
+				bh.consume(c);
+			}
+		};
+	}
+}
@@ -0,0 +1,79 @@
+package pabx.read;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pabx.read.Parser.Command;
+
+/**
+ * Steady state parsing: the same scanners parse the input again and again, so with the
+ * GC profiler (Benchmarks) gc.alloc.rate.norm is the garbage per pass, about 0 for
+ * 'flyweight' and the commands and their digits for 'commands'
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlyweightBenchmark {
+
+	@State(Scope.Thread)
+	public static class Scanners {
+		Blackhole bh;
+		long commands;
+		ByteBuffer bytes;
+		FusedScanner scanner;
+		FusedScanner flyweight;
+
+		@Setup(Level.Trial)
+		public void setUp(BenchmarkInput input, final Blackhole bh) {
+			this.bh = bh;
+			bytes = ByteBuffer.wrap(input.bytes);
+			scanner = new FusedScanner(new Input<Command>() {
+				@Override
+				public void receive(Command c) {
+					commands++;
+					bh.consume(c);
+				}
+			});
+			flyweight = FusedScanner.flyweight(new Input<CommandView>() {
+				@Override
+				public void receive(CommandView v) {
+					commands++;
+					bh.consume(v.source);
+				}
+			});
+		}
+	}
+
+	@Benchmark
+	public void commands(BenchmarkInput input, Scanners s, Counters counters) {
+		s.commands = 0;
+		s.bytes.clear();
+		s.scanner.receive(s.bytes);
+		counters.commands += s.commands;
+		counters.bytes += input.bytes.length;
+	}
+
+	@Benchmark
+	public void flyweight(BenchmarkInput input, Scanners s, Counters counters) {
+		s.commands = 0;
+		s.bytes.clear();
+		s.flyweight.receive(s.bytes);
+		counters.commands += s.commands;
+		counters.bytes += input.bytes.length;
+	}
+}
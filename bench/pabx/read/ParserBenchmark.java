@@ -0,0 +1,45 @@
+package pabx.read;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pabx.read.Tokenizer.Token;
+
+/**
+ * Parser alone, the input is tokenized once during the set up
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+	@Benchmark
+	public void parser(BenchmarkInput input, Counters counters, Blackhole bh) {
+		Parser p = new Parser(counters.commandSink(bh));
+		for (Token t : input.tokens) {
+			p.receive(t);
+		}
+		counters.bytes += input.bytes.length;
+		counters.tokens += input.tokens.length;
+	}
+
+	@Benchmark
+	public void codeParser(BenchmarkInput input, Counters counters, Blackhole bh) {
+		CodeParser p = new CodeParser(counters.commandSink(bh));
+		for (Token t : input.tokens) {
+			p.receive(t);
+		}
+		counters.bytes += input.bytes.length;
+		counters.tokens += input.tokens.length;
+	}
+}
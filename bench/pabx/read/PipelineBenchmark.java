@@ -0,0 +1,156 @@
+package pabx.read;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import pabx.read.Parser.Command;
+
+/**
+ * Full ReadEventStream pipeline (without the console output)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+	/**
+	 * ReadFile -> Tokenizer -> Parser, char by char as before ChunkInput
+	 */
+	@Benchmark
+	public void readFilePerChar(BenchmarkInput input, Counters counters, Blackhole bh) {
+		ReadFile rf = new ReadFile();
+		rf.subscribe(new Tokenizer(new Parser(counters.commandSink(bh))));
+		rf.read(new StringReader(input.text));
+		counters.bytes += input.bytes.length;
+	}
+
+	@Benchmark
+	public void readFile(BenchmarkInput input, Counters counters, Blackhole bh) {
+		ReadFile rf = new ReadFile();
+		rf.subscribeChunks(new Tokenizer(new Parser(counters.commandSink(bh))));
+		rf.read(input.file.getPath());
+		counters.bytes += input.bytes.length;
+	}
+
+	@Benchmark
+	public void mappedFile(BenchmarkInput input, Counters counters, Blackhole bh) {
+		MappedReadFile rf = new MappedReadFile();
+		rf.subscribe(new Tokenizer(new Parser(counters.commandSink(bh))));
+		rf.read(input.file.getPath());
+		counters.bytes += input.bytes.length;
+	}
+
+	/**
+	 * Pipeline without the file, to compare with the fused scanner
+	 */
+	@Benchmark
+	public void layered(BenchmarkInput input, Counters counters, Blackhole bh) {
+		new TableTokenizer(new Parser(counters.commandSink(bh))).receive(ByteBuffer.wrap(input.bytes));
+		counters.bytes += input.bytes.length;
+	}
+
+	@Benchmark
+	public void fused(BenchmarkInput input, Counters counters, Blackhole bh) {
+		new FusedScanner(counters.commandSink(bh)).receive(ByteBuffer.wrap(input.bytes));
+		counters.bytes += input.bytes.length;
+	}
+
+	@Benchmark
+	public void fusedMappedFile(BenchmarkInput input, Counters counters, Blackhole bh) {
+		MappedReadFile rf = new MappedReadFile();
+		rf.subscribe(new FusedScanner(counters.commandSink(bh)));
+		rf.read(input.file.getPath());
+		counters.bytes += input.bytes.length;
+	}
+
+	/**
+	 * Tokenizer and Parser on their own threads, needs 4 cores
+	 */
+	@Benchmark
+	public void pipelined(BenchmarkInput input, Counters counters, Blackhole bh) {
+		new PipelinedReader(counters.commandSink(bh), 1 << 14, WaitStrategy.YIELD, ReadFile.defaultBufferSize)
+				.read(new StringReader(input.text));
+		counters.bytes += input.bytes.length;
+	}
+
+	/**
+	 * One shard per core, each with its own sink
+	 */
+	@Benchmark
+	public void sharded(BenchmarkInput input, final Counters counters, final Blackhole bh) {
+		final Counters[] shardCounters = new Counters[Runtime.getRuntime().availableProcessors()];
+		ShardedParser parser = new ShardedParser(shardCounters.length, new IntFunction<Input<Command>>() {
+			@Override
+			public Input<Command> apply(int shard) {
+				shardCounters[shard] = new Counters();
+				return shardCounters[shard].commandSink(bh);
+			}
+		});
+		parser.receive(ByteBuffer.wrap(input.bytes));
+		parser.finish();
+		for (Counters c : shardCounters) {
+			counters.commands += c.commands;
+		}
+		counters.bytes += input.bytes.length;
+	}
+
+	/**
+	 * The input is parsed as 64 streams at once, by one worker per core, each stream
+	 * is fed in 64KB buffers
+	 */
+	@Benchmark
+	public void demultiplexed(BenchmarkInput input, Counters counters, Blackhole bh) {
+		Demultiplexer demultiplexer = new Demultiplexer(Runtime.getRuntime().availableProcessors());
+		Counters[] streamCounters = new Counters[64];
+		Demultiplexer.Stream[] streams = new Demultiplexer.Stream[streamCounters.length];
+		for (int i = 0; i < streams.length; i++) {
+			streamCounters[i] = new Counters();
+			streams[i] = demultiplexer.open(streamCounters[i].commandSink(bh));
+		}
+		for (int offset = 0; offset < input.bytes.length; offset += 64 * 1024) {
+			for (Demultiplexer.Stream stream : streams) {
+				stream.receive(ByteBuffer.wrap(input.bytes, offset, Math.min(64 * 1024, input.bytes.length - offset)));
+			}
+		}
+		demultiplexer.close();
+		for (Counters c : streamCounters) {
+			counters.commands += c.commands;
+		}
+		counters.bytes += (long) streams.length * input.bytes.length;
+	}
+
+	@Benchmark
+	public void parallelFile(BenchmarkInput input, Counters counters, Blackhole bh) {
+		ParallelReadFile rf = new ParallelReadFile(counters.commandSink(bh), ForkJoinPool.commonPool(),
+				1024 * 1024);
+		rf.read(input.file.getPath());
+		counters.bytes += input.bytes.length;
+	}
+
+	/**
+	 * Replay of the commands saved in the binary format, 'bytes' counts the size of the
+	 * text so the throughput compares with the parsers
+	 */
+	@Benchmark
+	public void binaryReplay(BenchmarkInput input, Counters counters, Blackhole bh) throws IOException {
+		try (BinaryCommandReader reader = new BinaryCommandReader(input.binary.getPath())) {
+			reader.replay(counters.commandSink(bh));
+		}
+		counters.bytes += input.bytes.length;
+	}
+}
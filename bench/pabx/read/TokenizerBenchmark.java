@@ -0,0 +1,47 @@
+package pabx.read;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Tokenizer alone, each operation tokenizes the whole input
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+	@Benchmark
+	public void tokenizerPerChar(BenchmarkInput input, Counters counters, Blackhole bh) {
+		Tokenizer t = new Tokenizer(counters.tokenSink(bh));
+		for (char c : input.chars) {
+			t.receive((int) c);
+		}
+		counters.bytes += input.chars.length;
+	}
+
+	@Benchmark
+	public void tokenizerChunk(BenchmarkInput input, Counters counters, Blackhole bh) {
+		Tokenizer t = new Tokenizer(counters.tokenSink(bh));
+		t.receive(input.chars, 0, input.chars.length);
+		counters.bytes += input.chars.length;
+	}
+
+	@Benchmark
+	public void tableTokenizer(BenchmarkInput input, Counters counters, Blackhole bh) {
+		TableTokenizer t = new TableTokenizer(counters.tokenSink(bh));
+		t.receive(ByteBuffer.wrap(input.bytes));
+		counters.bytes += input.bytes.length;
+	}
+}
@@ -4,6 +4,7 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -27,7 +28,7 @@ import java.util.concurrent.TimeUnit;
  * <CR>Dxxxx4<LF>
  * <CR>Dxxxx#<LF>
  * 
- * 'Dial' events from multiple calls can be interleaved, hence the 'map' in Parser to keep track
+ * 'Dial' events from multiple calls can be interleaved, hence the DialAccumulator in Parser to keep track
  * 
  * All dialed number are primes so that it is easy to check that the all the digits are properly 
  * retrieved after the parsing
@@ -37,37 +38,120 @@ import java.util.concurrent.TimeUnit;
  */
 public class GenerateEventStream {
 
+	/**
+	 * Sieve of Eratosthenes over the odd numbers, one bit per number
+	 * 
+	 * isPrime is a bit test. shared() returns an instance of the default bound cached for the
+	 * whole program, it never changes so the draws of getRandomPrime(), count() and get() do
+	 * not depend on what other callers have asked for. As in the original list based version
+	 * 1 is counted as a prime (it can be dialed by the generator), numbers outside of [1, nb]
+	 * are not primes
+	 */
 	public static class Primes {
 		static int defaultNumber = 10000;
-		List<Integer> primes = new ArrayList<Integer>();
-		
+		private static Primes shared;
+		/**
+		 * Bigger instance for shared(nb), only used to test numbers
+		 */
+		private static Primes larger;
+
+		private final int limit;
+		/**
+		 * bit i is set when 2i+1 is composite
+		 */
+		private final long[] composite;
+		private int[] primes;
+
 		public Primes() {
 			this(defaultNumber);
 		}
 
 		public Primes(int nb) {
-			boolean sieve[] = new boolean[nb];
-			for (int i = 2; i <= nb; i++) {
-				for (int j = 2 * i; j <= nb; j = j + i) {
-					sieve[j - 1] = true;
+			if (nb < 1) {
+				throw new IllegalArgumentException("Invalid bound " + nb);
+			}
+			limit = nb;
+			composite = new long[(nb >>> 7) + 1];
+			for (long i = 3; i * i <= nb; i += 2) {
+				if (!isComposite((int) i)) {
+					for (long j = i * i; j <= nb; j += 2 * i) {
+						int bit = (int) (j >>> 1);
+						composite[bit >>> 6] |= 1L << bit;
+					}
 				}
 			}
-			for (int i = 0; i < nb; i++) {
-				if (!sieve[i]) {
-					primes.add(i + 1);
+		}
+
+		/**
+		 * Instance to test numbers up to 'nb' with isPrime(), shared() when 'nb' is within
+		 * its bound; a bigger one is cached apart and never replaces shared()
+		 */
+		public static synchronized Primes shared(int nb) {
+			Primes ret = shared();
+			if (ret.limit < nb) {
+				if (larger == null || larger.limit < nb) {
+					larger = new Primes(nb);
 				}
+				ret = larger;
 			}
+			return ret;
 		}
 
-		int getRandomPrime() {
-			int i = (int) (primes.size()*Math.random());
-			return primes.get(i);			
+		/**
+		 * Instance of the default bound, the same for the whole program
+		 */
+		public static synchronized Primes shared() {
+			if (shared == null) {
+				shared = new Primes(defaultNumber);
+			}
+			return shared;
 		}
-		
-		
-		public boolean isPrime(Integer v) {
-			assert (v <= defaultNumber);
-			return primes.contains(v);
+
+		private boolean isComposite(int odd) {
+			int bit = odd >>> 1;
+			return (composite[bit >>> 6] & 1L << bit) != 0;
+		}
+
+		public boolean isPrime(int v) {
+			boolean ret = false;
+			if (v >= 1 && v <= limit) {
+				ret = (v & 1) == 0 ? v == 2 : !isComposite(v);
+			}
+			return ret;
+		}
+
+		/**
+		 * List of the primes, built the first time it is needed
+		 */
+		private synchronized int[] primes() {
+			if (primes == null) {
+				int[] list = new int[1024];
+				int n = 0;
+				for (int v = 1; v <= limit && v > 0; v++) {
+					if (isPrime(v)) {
+						if (n == list.length) {
+							list = Arrays.copyOf(list, n * 2);
+						}
+						list[n++] = v;
+					}
+				}
+				primes = Arrays.copyOf(list, n);
+			}
+			return primes;
+		}
+
+		public int count() {
+			return primes().length;
+		}
+
+		public int get(int i) {
+			return primes()[i];
+		}
+
+		int getRandomPrime() {
+			int[] list = primes();
+			int i = (int) (list.length*Math.random());
+			return list[i];			
 		}
 	}
 	
@@ -172,16 +256,65 @@ public class GenerateEventStream {
 		
 	}
 	
-	public static void main(String[] argv) throws InterruptedException, IOException {
-		int nbPhones = 10;
+	static int[] randomNumbers(int nbPhones) {
 		int[] numbers = new int[nbPhones];
 		for(int i=0;i<numbers.length;i++) {
 			numbers[i] = (int) (Math.random()*9000+1000);
 		}
+		return numbers;
+	}
+
+	/**
+	 * Generate 'nbEvents' events synchronously, without the threads and the sleeps of 'main'
+	 * 
+	 * 'weights' gives the proportion of each event type, in the same order as Phone.getEvent
+	 * (Idle, Attempt, Connect, Dial). The events of the phones are interleaved, so are the
+	 * Dial digits. Every Dial sequence is complete at the end of the stream.
+	 */
+	public static String generate(int nbPhones, int nbEvents, int[] weights) {
+		int[] numbers = randomNumbers(nbPhones);
+		Primes primes = Primes.shared();
+		int total = 0;
+		for (int w : weights) {
+			total += w;
+		}
+		List<Phone> phones = new ArrayList<Phone>();
+		List<LinkedList<String>> pending = new ArrayList<LinkedList<String>>();
+		for (int i = 0; i < nbPhones; i++) {
+			phones.add(new Phone(null, i, numbers, primes));
+			pending.add(new LinkedList<String>());
+		}
+		StringBuilder sb = new StringBuilder();
+		int count = 0;
+		while (count < nbEvents) {
+			int i = (int) (Math.random() * nbPhones);
+			LinkedList<String> events = pending.get(i);
+			if (events.isEmpty()) {
+				int r = (int) (Math.random() * total);
+				int eventType = 0;
+				while (r >= weights[eventType]) {
+					r -= weights[eventType++];
+				}
+				events.addAll(phones.get(i).getEvent(eventType));
+			}
+			sb.append(events.removeFirst());
+			count++;
+		}
+		for (LinkedList<String> events : pending) {
+			for (String event : events) {
+				sb.append(event);
+			}
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] argv) throws InterruptedException, IOException {
+		int nbPhones = 10;
+		int[] numbers = randomNumbers(nbPhones);
 		
 		FileWriter fw = new FileWriter("a.txt");
 		ExecutorService pool = Executors.newFixedThreadPool(10);
-		Primes primes = new Primes();
+		Primes primes = Primes.shared();
 		BufferedWriter bw = new BufferedWriter(fw);
 		Writer w = new Writer(bw);
 		Thread wThread = new Thread(w);
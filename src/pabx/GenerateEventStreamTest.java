@@ -0,0 +1,50 @@
+package pabx;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream.Primes;
+
+public class GenerateEventStreamTest extends TestCase {
+
+	private static boolean trialDivision(int v) {
+		for (int d = 2; d * d <= v; d++) {
+			if (v % d == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void testPrimes() {
+		int nb = 100000;
+		Primes primes = new Primes(nb);
+		int count = 0;
+		for (int v = 1; v <= nb; v++) {
+			Assert.assertEquals("" + v, trialDivision(v), primes.isPrime(v));
+			if (trialDivision(v)) {
+				Assert.assertEquals(v, primes.get(count++));
+			}
+		}
+		Assert.assertEquals(count, primes.count());
+		Assert.assertFalse(primes.isPrime(0));
+		Assert.assertFalse(primes.isPrime(-7));
+		Assert.assertFalse(primes.isPrime(100003));
+	}
+
+	public void testDefaultPrimes() {
+		// same list as the original sieve, 1 included
+		Primes primes = new Primes();
+		Assert.assertEquals(1230, primes.count());
+		Assert.assertTrue(primes.isPrime(1));
+		Assert.assertTrue(primes.isPrime(9973));
+		Assert.assertFalse(primes.isPrime(10000));
+	}
+
+	public void testShared() {
+		Primes primes = Primes.shared();
+		Assert.assertSame(primes, Primes.shared());
+		Assert.assertSame(primes, Primes.shared(100));
+		Assert.assertSame(primes, Primes.shared(primes.get(primes.count() - 1)));
+		Assert.assertEquals(1230, primes.count());
+	}
+}
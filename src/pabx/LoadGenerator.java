@@ -0,0 +1,444 @@
+package pabx;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import pabx.GenerateEventStream.Primes;
+
+/**
+ * Load generator, same events as GenerateEventStream but for tens of thousands of phones
+ *
+ * Each phone runs on its own virtual thread and sleeps between two events. The phones
+ * encode their frames directly as bytes in batches shared by a few phones (a stripe),
+ * a full batch is handed to a single writer that writes it to the channel and gives it
+ * back; when the writer is idle, it also takes the batches that are not full, so the
+ * output does not stay behind the phones.
+ *
+ * Virtual threads are looked up at runtime: when the JVM does not have them, the
+ * phones are scheduled on a few platform threads instead of sleeping.
+ *
+ * usage: LoadGenerator [-phones n] [-rate events/s per phone] [-duration seconds] [file]
+ *
+ * Extensions have 4 digits, so when there are more than 9000 phones several phones
+ * share an extension; a phone keeps its extension busy while it sends an event
+ * and its 'D' digits so that the sequences of two phones are not mixed. The phones of
+ * an extension use the same stripe, so its frames are written in the order they were
+ * sent.
+ */
+public class LoadGenerator {
+	static int firstNumber = 1000;
+	static int nbNumbers = 9000;
+
+	/**
+	 * Single consumer of the batches, the phones never block on it unless all the
+	 * batches are full and waiting to be written
+	 *
+	 * No lock: a phone claims the bytes of its frame with a CAS on the position of the
+	 * batch of its stripe, writes them and adds them to the committed bytes. The phone
+	 * whose frame does not fit seals the batch (the position becomes SEALED), puts it
+	 * in the queue and only then replaces it, so the batches of a stripe are queued in
+	 * order; the writer waits for the committed bytes to reach the sealed length.
+	 */
+	static class BatchWriter implements Runnable {
+		static final int STRIPES = 64;
+		/**
+		 * "<CR>A12345678<LF>"
+		 */
+		static final int MAX_FRAME = 17;
+		static final int SEALED = -1;
+
+		static final class Batch {
+			final ByteBuffer bytes;
+			/**
+			 * Next byte to claim, SEALED once handed over to the writer
+			 */
+			final AtomicInteger claimed = new AtomicInteger();
+			final AtomicInteger committed = new AtomicInteger();
+			/**
+			 * Bytes of the batch, set when it is sealed
+			 */
+			int length;
+
+			Batch(int size) {
+				bytes = ByteBuffer.allocateDirect(size);
+			}
+		}
+
+		private final WritableByteChannel channel;
+		/**
+		 * Batch being filled by the phones of each stripe
+		 */
+		private final AtomicReferenceArray<Batch> stripes = new AtomicReferenceArray<Batch>(STRIPES);
+		private final LinkedBlockingQueue<Batch> full = new LinkedBlockingQueue<Batch>();
+		private final ConcurrentLinkedQueue<Batch> free = new ConcurrentLinkedQueue<Batch>();
+		private volatile boolean finished = false;
+		long written;
+
+		/**
+		 * 'batches' buffers of 'batchSize' bytes, one per stripe and the others to
+		 * hand over the full ones
+		 */
+		BatchWriter(WritableByteChannel channel, int batchSize, int batches) {
+			if (batches <= STRIPES || batchSize < MAX_FRAME) {
+				throw new IllegalArgumentException("Invalid batches " + batches + "x" + batchSize);
+			}
+			this.channel = channel;
+			for (int i = 0; i < batches; i++) {
+				if (i < STRIPES) {
+					stripes.set(i, new Batch(batchSize));
+				} else {
+					free.add(new Batch(batchSize));
+				}
+			}
+		}
+
+		/**
+		 * Add the frame "<CR>" type number [other] "<LF>" to the batch of 'stripe',
+		 * 'other' is a 4 digit number, a char (Dial digit or '#') or -1
+		 */
+		void output(int stripe, char type, int number, int other) {
+			int length = other >= firstNumber ? 17 : other >= 0 ? 14 : 13;
+			while (true) {
+				Batch batch = stripes.get(stripe);
+				int position = batch.claimed.get();
+				if (position == SEALED) {
+					// being replaced by another phone
+					Thread.yield();
+				} else if (position + length <= batch.bytes.capacity()) {
+					// a batch recycled in the meantime can take the frame too: it is
+					// written after the frames this phone has sent before
+					if (batch.claimed.compareAndSet(position, position + length)) {
+						frame(batch.bytes, position, type, number, other);
+						batch.committed.addAndGet(length);
+						return;
+					}
+				} else {
+					Batch next = free.poll();
+					if (next == null) {
+						// all the batches are waiting for the writer
+						LockSupport.parkNanos(100000);
+					} else if (!seal(stripe, batch, position, next)) {
+						free.add(next);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Hand over 'batch' with its 'length' bytes and replace it with 'next', false
+		 * when another thread claimed or sealed it first
+		 */
+		private boolean seal(int stripe, Batch batch, int length, Batch next) {
+			if (!batch.claimed.compareAndSet(length, SEALED)) {
+				return false;
+			}
+			batch.length = length;
+			full.add(batch);
+			stripes.set(stripe, next);
+			return true;
+		}
+
+		private static void frame(ByteBuffer b, int i, char type, int number, int other) {
+			i = put(b, i, '<', 'C', 'R', '>');
+			b.put(i++, (byte) type);
+			i = number(b, i, number);
+			if (other >= firstNumber) {
+				i = number(b, i, other);
+			} else if (other >= 0) {
+				b.put(i++, (byte) other);
+			}
+			put(b, i, '<', 'L', 'F', '>');
+		}
+
+		private static int put(ByteBuffer b, int i, char c0, char c1, char c2, char c3) {
+			b.put(i, (byte) c0).put(i + 1, (byte) c1).put(i + 2, (byte) c2).put(i + 3, (byte) c3);
+			return i + 4;
+		}
+
+		private static int number(ByteBuffer b, int i, int v) {
+			return put(b, i, (char) ('0' + v / 1000), (char) ('0' + v / 100 % 10), (char) ('0' + v / 10 % 10),
+					(char) ('0' + v % 10));
+		}
+
+		/**
+		 * Called once all the phones are done
+		 */
+		void finish() {
+			finished = true;
+		}
+
+		private void write(Batch batch) throws IOException {
+			// the phones that claimed bytes before the batch was sealed may still be
+			// writing them
+			while (batch.committed.get() != batch.length) {
+				Thread.yield();
+			}
+			ByteBuffer b = batch.bytes;
+			b.limit(batch.length);
+			while (b.hasRemaining()) {
+				written += channel.write(b);
+			}
+			b.clear();
+			batch.committed.set(0);
+			batch.claimed.set(0);
+		}
+
+		/**
+		 * Hand over the batches that are not empty, while there are free ones
+		 */
+		private void flush() {
+			for (int i = 0; i < STRIPES; i++) {
+				Batch batch = stripes.get(i);
+				int position = batch.claimed.get();
+				if (position > 0) {
+					Batch next = free.poll();
+					if (next == null) {
+						return;
+					}
+					if (!seal(i, batch, position, next)) {
+						free.add(next);
+					}
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!finished) {
+					Batch batch = full.poll(1, TimeUnit.MILLISECONDS);
+					if (batch == null) {
+						flush();
+					} else {
+						write(batch);
+						free.add(batch);
+					}
+				}
+				// the phones are done, write what is left in order
+				Batch batch;
+				while ((batch = full.poll()) != null) {
+					write(batch);
+				}
+				for (int i = 0; i < STRIPES; i++) {
+					batch = stripes.get(i);
+					batch.length = batch.claimed.get();
+					write(batch);
+				}
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private final BatchWriter writer;
+	private final Primes primes = Primes.shared();
+	private final int nbPhones;
+	private final double rate;
+	private final long durationNanos;
+	private long deadline;
+	private final CountDownLatch done;
+	private final AtomicIntegerArray busy = new AtomicIntegerArray(nbNumbers);
+	private ScheduledExecutorService scheduler;
+
+	LoadGenerator(BatchWriter writer, int nbPhones, double rate, long durationNanos) {
+		this.writer = writer;
+		this.nbPhones = nbPhones;
+		this.rate = rate;
+		this.durationNanos = durationNanos;
+		done = new CountDownLatch(nbPhones);
+	}
+
+	/**
+	 * Exponential delay between two events of a phone
+	 */
+	private long nextDelay() {
+		double u = ThreadLocalRandom.current().nextDouble();
+		return (long) (-Math.log(1 - u) / rate * 1e9);
+	}
+
+	class Phone implements Runnable {
+		final int index;
+		final int extension;
+		/**
+		 * Frames not sent yet, type << 16 | other (see BatchWriter.output())
+		 */
+		private final int[] pending = new int[16];
+		private int head;
+		private int tail;
+
+		Phone(int index) {
+			this.index = index;
+			extension = index % nbNumbers;
+		}
+
+		private void add(char type, int other) {
+			pending[tail++ & 15] = type << 16 | other & 0xffff;
+		}
+
+		private void addEvent() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			switch (random.nextInt(4)) {
+			case 0:
+				add('I', -1);
+				break;
+			case 1:
+				add('A', otherNumber(random));
+				break;
+			case 2:
+				add('C', otherNumber(random));
+				break;
+			default:
+				int prime = primes.get(random.nextInt(primes.count()));
+				int divisor = 1;
+				while (prime / divisor >= 10) {
+					divisor *= 10;
+				}
+				for (; divisor > 0; divisor /= 10) {
+					add('D', '0' + prime / divisor % 10);
+				}
+				add('D', '#');
+			}
+		}
+
+		/**
+		 * Another extension, never the one of the phone
+		 */
+		private int otherNumber(ThreadLocalRandom random) {
+			return firstNumber + SeededGenerator.otherIndex(extension, random.nextInt(nbNumbers - 1));
+		}
+
+		/**
+		 * Send the next event, returns the delay until the next one or -1
+		 * when the phone is done
+		 */
+		long step() {
+			if (head == tail) {
+				if (System.nanoTime() >= deadline) {
+					return -1;
+				}
+				if (!busy.compareAndSet(extension, 0, 1)) {
+					// another phone is using the extension
+					return nextDelay();
+				}
+				addEvent();
+			}
+			int event = pending[head++ & 15];
+			writer.output(extension % BatchWriter.STRIPES, (char) (event >>> 16), firstNumber + extension,
+					(short) event);
+			if (head == tail) {
+				busy.set(extension, 0);
+			}
+			return nextDelay();
+		}
+
+		/**
+		 * Phone on its own (virtual) thread
+		 */
+		@Override
+		public void run() {
+			long delay;
+			while ((delay = step()) >= 0) {
+				LockSupport.parkNanos(delay);
+			}
+			done.countDown();
+		}
+
+		/**
+		 * Phone on the scheduler, one step at a time
+		 */
+		void schedule(long delay) {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					long next = step();
+					if (next >= 0) {
+						schedule(next);
+					} else {
+						done.countDown();
+					}
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Executor with a virtual thread per task, null if the JVM has no virtual threads
+	 */
+	static ExecutorService virtualThreads() {
+		ExecutorService ret = null;
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			ret = (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// not available before Java 21
+		}
+		return ret;
+	}
+
+	void run() throws InterruptedException {
+		deadline = System.nanoTime() + durationNanos;
+		ExecutorService virtual = virtualThreads();
+		if (virtual != null) {
+			for (int i = 0; i < nbPhones; i++) {
+				virtual.execute(new Phone(i));
+			}
+			done.await();
+			virtual.shutdown();
+		} else {
+			System.err.println("No virtual threads, the phones are scheduled on platform threads");
+			scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+			for (int i = 0; i < nbPhones; i++) {
+				new Phone(i).schedule(nextDelay());
+			}
+			done.await();
+			scheduler.shutdown();
+		}
+	}
+
+	public static void main(String[] argv) throws IOException, InterruptedException {
+		int nbPhones = 10000;
+		double rate = 1;
+		long duration = 10;
+		String name = "a.txt";
+		for (int i = 0; i < argv.length; i++) {
+			if (argv[i].equals("-phones")) {
+				nbPhones = Integer.parseInt(argv[++i]);
+			} else if (argv[i].equals("-rate")) {
+				rate = Double.parseDouble(argv[++i]);
+			} else if (argv[i].equals("-duration")) {
+				duration = Long.parseLong(argv[++i]);
+			} else {
+				name = argv[i];
+			}
+		}
+
+		FileOutputStream fos = new FileOutputStream(name);
+		BatchWriter w = new BatchWriter(fos.getChannel(), 64 * 1024, 4 * BatchWriter.STRIPES);
+		Thread wThread = new Thread(w, "writer");
+		wThread.start();
+		long start = System.nanoTime();
+		new LoadGenerator(w, nbPhones, rate, TimeUnit.SECONDS.toNanos(duration)).run();
+		w.finish();
+		wThread.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d bytes in %.1fs (%.1f MB/s)%n", w.written, seconds, w.written / seconds / 1e6);
+	}
+}
@@ -0,0 +1,110 @@
+package pabx;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream.Primes;
+
+public class LoadGeneratorTest extends TestCase {
+
+	private static String generate(int nbPhones, double rate, long millis) throws InterruptedException {
+		return generate(nbPhones, rate, millis, 0);
+	}
+
+	/**
+	 * Same, 'idle' milliseconds between the construction of the generator and run()
+	 */
+	private static String generate(int nbPhones, double rate, long millis, long idle) throws InterruptedException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LoadGenerator.BatchWriter w = new LoadGenerator.BatchWriter(Channels.newChannel(out), 4096,
+				2 * LoadGenerator.BatchWriter.STRIPES);
+		Thread wThread = new Thread(w, "writer");
+		wThread.start();
+		LoadGenerator generator = new LoadGenerator(w, nbPhones, rate, TimeUnit.MILLISECONDS.toNanos(millis));
+		Thread.sleep(idle);
+		generator.run();
+		w.finish();
+		wThread.join();
+		Assert.assertEquals(out.size(), w.written);
+		return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Checks the frames of 's' and returns their number
+	 */
+	private static int check(String s) {
+		Primes primes = Primes.shared();
+		Map<String, StringBuilder> digits = new HashMap<String, StringBuilder>();
+		int frames = 0;
+		int position = 0;
+		while (position < s.length()) {
+			int end = s.indexOf("<LF>", position);
+			Assert.assertTrue(s.startsWith("<CR>", position));
+			String frame = s.substring(position + 4, end);
+			String number = frame.substring(1, 5);
+			switch (frame.charAt(0)) {
+			case 'I':
+				Assert.assertEquals(5, frame.length());
+				break;
+			case 'A':
+			case 'C':
+				Assert.assertEquals(9, frame.length());
+				Assert.assertFalse(frame, number.equals(frame.substring(5)));
+				break;
+			case 'D':
+				Assert.assertEquals(6, frame.length());
+				StringBuilder sb = digits.get(number);
+				if (sb == null) {
+					sb = new StringBuilder();
+					digits.put(number, sb);
+				}
+				if (frame.charAt(5) == '#') {
+					Assert.assertTrue(sb.toString(), primes.isPrime(Integer.parseInt(sb.toString())));
+					sb.setLength(0);
+				} else {
+					sb.append(frame.charAt(5));
+				}
+				break;
+			default:
+				Assert.fail(frame);
+			}
+			frames++;
+			position = end + 4;
+		}
+		// the phones end their Dial sequences before stopping
+		for (StringBuilder sb : digits.values()) {
+			Assert.assertEquals(0, sb.length());
+		}
+		return frames;
+	}
+
+	public void testRate() throws InterruptedException {
+		int frames = check(generate(100, 100, 1000));
+		// 100 phones x 100 frames/s x 1s
+		Assert.assertTrue(String.valueOf(frames), frames > 5000);
+		Assert.assertTrue(String.valueOf(frames), frames < 20000);
+	}
+
+	/**
+	 * More phones than extensions: the Dial sequences of the phones of an extension
+	 * are not mixed
+	 */
+	public void testSharedExtensions() throws InterruptedException {
+		int frames = check(generate(LoadGenerator.nbNumbers * 2, 20, 500));
+		Assert.assertTrue(String.valueOf(frames), frames > 0);
+	}
+
+	/**
+	 * The duration starts with run(), not with the construction
+	 */
+	public void testDeadline() throws InterruptedException {
+		int frames = check(generate(100, 100, 300, 500));
+		Assert.assertTrue(String.valueOf(frames), frames > 1000);
+	}
+}
@@ -0,0 +1,343 @@
+package pabx;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import pabx.GenerateEventStream.Primes;
+
+/**
+ * Reproducible version of GenerateEventStream
+ *
+ * Same commands and same rules: the phones send Idle, Attempt, Connect and Dial events,
+ * the digits of a Dial are sent one frame at a time, interleaved with the events of the
+ * other phones, and the dialed numbers are primes.
+ *
+ * Everything comes from the seed: the phones wait a simulated delay between two events
+ * (up to 10ms, like the sleeps of GenerateEventStream.Phone) and the next event is the
+ * one of the phone with the earliest time, taken from a heap, so there is no sleep and
+ * no clock involved.
+ *
+ * The stream is generated by segments of 'segmentEvents' events, each segment has its
+ * own SplittableRandom split from the seed and ends with the Dial sequences it started,
+ * so the segments are generated in parallel and written in order with large buffers.
+ * The output only depends on the seed and the parameters, not on the number of threads.
+ *
+ * usage: SeededGenerator [-seed n] [-phones n] [-events n] [file]
+ */
+public class SeededGenerator {
+	static int defaultSegmentEvents = 1 << 20;
+	static int firstNumber = 1000;
+	static int nbNumbers = 9000;
+	static int maxDelay = 10000;
+
+	/**
+	 * Largest frame, "<CR>Axxxxyyyy<LF>"
+	 */
+	private static final int maxFrame = 17;
+	/**
+	 * Bound of the dialed primes, fixed so the output does not depend on Primes.defaultNumber
+	 * or on Primes.shared()
+	 */
+	private static final int primesBound = 10000;
+
+	private final long seed;
+	private final int[] numbers;
+	private final int[] weights;
+	private final int totalWeight;
+	private final long nbEvents;
+	private final int segmentEvents;
+	private final int[] primes;
+
+	/**
+	 * Uniform event types, as in GenerateEventStream.main
+	 */
+	public SeededGenerator(long seed, int nbPhones, long nbEvents) {
+		this(seed, nbPhones, nbEvents, new int[] { 1, 1, 1, 1 }, defaultSegmentEvents);
+	}
+
+	/**
+	 * 'weights' gives the proportion of each event type: Idle, Attempt, Connect, Dial
+	 */
+	public SeededGenerator(long seed, int nbPhones, long nbEvents, int[] weights, int segmentEvents) {
+		if (nbPhones < 2 || nbPhones > nbNumbers) {
+			throw new IllegalArgumentException("Invalid number of phones " + nbPhones);
+		}
+		if (weights.length != 4) {
+			throw new IllegalArgumentException("4 weights expected");
+		}
+		// the frames of a segment, with the end of its Dial sequences, fit in a byte array
+		if (segmentEvents < 1 || (segmentEvents + 5L * nbPhones) * maxFrame > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("Invalid segment events " + segmentEvents);
+		}
+		this.seed = seed;
+		this.weights = weights.clone();
+		int total = 0;
+		for (int w : weights) {
+			total += w;
+		}
+		totalWeight = total;
+		this.nbEvents = nbEvents;
+		this.segmentEvents = segmentEvents;
+		Primes p = new Primes(primesBound);
+		primes = new int[p.count()];
+		for (int i = 0; i < primes.length; i++) {
+			primes[i] = p.get(i);
+		}
+		numbers = distinctNumbers(new SplittableRandom(seed), nbPhones);
+	}
+
+	/**
+	 * Distinct extensions, a shared extension would mix the Dial digits of two phones
+	 */
+	static int[] distinctNumbers(SplittableRandom random, int nbPhones) {
+		int[] all = new int[nbNumbers];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = firstNumber + i;
+		}
+		for (int i = 0; i < nbPhones; i++) {
+			int j = i + random.nextInt(all.length - i);
+			int t = all[i];
+			all[i] = all[j];
+			all[j] = t;
+		}
+		int[] ret = new int[nbPhones];
+		System.arraycopy(all, 0, ret, 0, nbPhones);
+		return ret;
+	}
+
+	/**
+	 * Events of one segment, encoded in a byte array
+	 */
+	class Segment implements Callable<Segment> {
+		final SplittableRandom random;
+		final long events;
+		byte[] bytes;
+		int length;
+
+		/**
+		 * Heap of the phones ordered by the time of their next event
+		 */
+		private final long[] times = new long[numbers.length];
+		private final int[] heap = new int[numbers.length];
+
+		/**
+		 * Dial in progress for each phone: the number and the digits left to send, -1 for none
+		 */
+		private final int[] dialed = new int[numbers.length];
+		private final int[] dialLeft = new int[numbers.length];
+
+		Segment(SplittableRandom random, long events) {
+			this.random = random;
+			this.events = events;
+		}
+
+		@Override
+		public Segment call() {
+			// the events and the end of the Dial sequences, up to 5 frames per phone
+			bytes = new byte[(int) ((events + 5L * numbers.length) * maxFrame)];
+			for (int i = 0; i < numbers.length; i++) {
+				heap[i] = i;
+				times[i] = random.nextInt(maxDelay);
+				dialLeft[i] = -1;
+			}
+			for (int i = numbers.length / 2 - 1; i >= 0; i--) {
+				down(i);
+			}
+			for (long n = 0; n < events; n++) {
+				int phone = heap[0];
+				next(phone);
+				times[phone] += random.nextInt(maxDelay);
+				down(0);
+			}
+			// complete the Dial sequences, by order of phone
+			for (int phone = 0; phone < numbers.length; phone++) {
+				while (dialLeft[phone] >= 0) {
+					next(phone);
+				}
+			}
+			return this;
+		}
+
+		private void down(int i) {
+			int size = heap.length;
+			int phone = heap[i];
+			long time = times[phone];
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && times[heap[child + 1]] < times[heap[child]]) {
+					child++;
+				}
+				if (times[heap[child]] >= time) {
+					break;
+				}
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = phone;
+		}
+
+		/**
+		 * Next event of 'phone': the next frame of its Dial if there is one in progress
+		 */
+		private void next(int phone) {
+			int number = numbers[phone];
+			int left = dialLeft[phone];
+			if (left > 0) {
+				int d = dialed[phone];
+				for (int k = 1; k < left; k++) {
+					d /= 10;
+				}
+				frame('D', number, '0' + d % 10);
+				dialLeft[phone] = left - 1;
+			} else if (left == 0) {
+				frame('D', number, '#');
+				dialLeft[phone] = -1;
+			} else {
+				int r = random.nextInt(totalWeight);
+				int eventType = 0;
+				while (r >= weights[eventType]) {
+					r -= weights[eventType++];
+				}
+				switch (eventType) {
+				case 0:
+					frame('I', number, -1);
+					break;
+				case 1:
+					frame('A', number, otherNumber(phone));
+					break;
+				case 2:
+					frame('C', number, otherNumber(phone));
+					break;
+				case 3:
+					int prime = primes[random.nextInt(primes.length)];
+					dialed[phone] = prime;
+					dialLeft[phone] = digits(prime);
+					next(phone);
+					break;
+				}
+			}
+		}
+
+		private int otherNumber(int phone) {
+			return numbers[otherIndex(phone, random.nextInt(numbers.length - 1))];
+		}
+
+		/**
+		 * "<CR>" type number [other] "<LF>", 'other' is a 4 digit number, a char
+		 * (Dial digit or '#') or -1
+		 */
+		private void frame(char type, int number, int other) {
+			byte[] b = bytes;
+			int p = length;
+			b[p++] = '<';
+			b[p++] = 'C';
+			b[p++] = 'R';
+			b[p++] = '>';
+			b[p++] = (byte) type;
+			p = number(b, p, number);
+			if (other >= firstNumber) {
+				p = number(b, p, other);
+			} else if (other >= 0) {
+				b[p++] = (byte) other;
+			}
+			b[p++] = '<';
+			b[p++] = 'L';
+			b[p++] = 'F';
+			b[p++] = '>';
+			length = p;
+		}
+	}
+
+	/**
+	 * Index of the other party of a call from 'index', 'drawn' is a random index among
+	 * the n - 1 others: the indexes from 'index' are shifted by one so a phone never
+	 * calls itself
+	 */
+	static int otherIndex(int index, int drawn) {
+		return drawn >= index ? drawn + 1 : drawn;
+	}
+
+	private static int digits(int v) {
+		int n = 1;
+		while (v >= 10) {
+			v /= 10;
+			n++;
+		}
+		return n;
+	}
+
+	private static int number(byte[] b, int p, int v) {
+		b[p++] = (byte) ('0' + v / 1000);
+		b[p++] = (byte) ('0' + v / 100 % 10);
+		b[p++] = (byte) ('0' + v / 10 % 10);
+		b[p++] = (byte) ('0' + v % 10);
+		return p;
+	}
+
+	/**
+	 * Generate the stream to 'channel', the segments are computed on 'pool'
+	 *
+	 * Returns the number of bytes written
+	 */
+	public long generate(WritableByteChannel channel, ForkJoinPool pool) throws IOException {
+		SplittableRandom root = new SplittableRandom(seed);
+		int maxInFlight = pool.getParallelism() * 2;
+		ArrayDeque<ForkJoinTask<Segment>> inFlight = new ArrayDeque<ForkJoinTask<Segment>>();
+		long written = 0;
+		long left = nbEvents;
+		while (left > 0 || !inFlight.isEmpty()) {
+			while (left > 0 && inFlight.size() < maxInFlight) {
+				long events = Math.min(left, segmentEvents);
+				// split in the order of the segments, whatever the pool
+				inFlight.add(pool.submit(new Segment(root.split(), events)));
+				left -= events;
+			}
+			Segment segment = inFlight.poll().join();
+			ByteBuffer buffer = ByteBuffer.wrap(segment.bytes, 0, segment.length);
+			while (buffer.hasRemaining()) {
+				written += channel.write(buffer);
+			}
+		}
+		return written;
+	}
+
+	public long generate(WritableByteChannel channel) throws IOException {
+		return generate(channel, ForkJoinPool.commonPool());
+	}
+
+	public static void main(String[] argv) throws IOException {
+		long seed = 0;
+		int nbPhones = 10;
+		long nbEvents = 100;
+		String name = "a.txt";
+		for (int i = 0; i < argv.length; i++) {
+			if (argv[i].equals("-seed")) {
+				seed = Long.parseLong(argv[++i]);
+			} else if (argv[i].equals("-phones")) {
+				nbPhones = Integer.parseInt(argv[++i]);
+			} else if (argv[i].equals("-events")) {
+				nbEvents = Long.parseLong(argv[++i]);
+			} else {
+				name = argv[i];
+			}
+		}
+		long start = System.nanoTime();
+		long written;
+		try (FileChannel channel = new FileOutputStream(name).getChannel()) {
+			written = new SeededGenerator(seed, nbPhones, nbEvents).generate(channel);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d bytes in %.1fs (%.1f MB/s)%n", written, seconds, written / seconds / 1e6);
+	}
+}
@@ -0,0 +1,113 @@
+package pabx;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream.Primes;
+
+public class SeededGeneratorTest extends TestCase {
+
+	private static String generate(SeededGenerator g, ForkJoinPool pool) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		g.generate(Channels.newChannel(out), pool);
+		return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	public void testDeterministic() throws IOException {
+		int[] weights = { 1, 1, 1, 1 };
+		ForkJoinPool one = new ForkJoinPool(1);
+		ForkJoinPool four = new ForkJoinPool(4);
+		String a = generate(new SeededGenerator(42, 100, 50000, weights, 4096), one);
+		String b = generate(new SeededGenerator(42, 100, 50000, weights, 4096), four);
+		String c = generate(new SeededGenerator(43, 100, 50000, weights, 4096), four);
+		one.shutdown();
+		four.shutdown();
+		Assert.assertEquals(a, b);
+		Assert.assertFalse(a.equals(c));
+	}
+
+	/**
+	 * The primes do not come from the program wide settings
+	 */
+	public void testIndependentOfDefaultPrimes() throws IOException {
+		int[] weights = { 1, 1, 1, 4 };
+		String a = generate(new SeededGenerator(5, 20, 20000, weights, 4096), ForkJoinPool.commonPool());
+		int defaultNumber = Primes.defaultNumber;
+		Primes.defaultNumber = 100000;
+		try {
+			String b = generate(new SeededGenerator(5, 20, 20000, weights, 4096), ForkJoinPool.commonPool());
+			Assert.assertEquals(a, b);
+		} finally {
+			Primes.defaultNumber = defaultNumber;
+		}
+	}
+
+	public void testGrammar() throws IOException {
+		String s = generate(new SeededGenerator(7, 50, 100000, new int[] { 1, 1, 1, 5 }, 10000),
+				ForkJoinPool.commonPool());
+		Primes primes = Primes.shared();
+		Map<String, StringBuilder> digits = new HashMap<String, StringBuilder>();
+		int frames = 0;
+		int dials = 0;
+		int position = 0;
+		while (position < s.length()) {
+			int end = s.indexOf("<LF>", position);
+			Assert.assertTrue(s.startsWith("<CR>", position));
+			String frame = s.substring(position + 4, end);
+			String number = frame.substring(1, 5);
+			switch (frame.charAt(0)) {
+			case 'I':
+				Assert.assertEquals(5, frame.length());
+				break;
+			case 'A':
+			case 'C':
+				Assert.assertEquals(9, frame.length());
+				Assert.assertFalse(number.equals(frame.substring(5)));
+				break;
+			case 'D':
+				Assert.assertEquals(6, frame.length());
+				StringBuilder sb = digits.get(number);
+				if (sb == null) {
+					sb = new StringBuilder();
+					digits.put(number, sb);
+				}
+				if (frame.charAt(5) == '#') {
+					Assert.assertTrue(sb.toString(), primes.isPrime(Integer.parseInt(sb.toString())));
+					sb.setLength(0);
+					dials++;
+				} else {
+					sb.append(frame.charAt(5));
+				}
+				break;
+			default:
+				Assert.fail(frame);
+			}
+			frames++;
+			position = end + 4;
+		}
+		// every segment completes its Dial sequences
+		for (StringBuilder sb : digits.values()) {
+			Assert.assertEquals(0, sb.length());
+		}
+		Assert.assertTrue(frames >= 100000);
+		Assert.assertTrue(dials > 10000);
+	}
+
+	public void testInvalidSegmentEvents() {
+		for (int segmentEvents : new int[] { 0, -1, Integer.MAX_VALUE / 17, Integer.MAX_VALUE }) {
+			try {
+				new SeededGenerator(1, 100, 1000, new int[] { 1, 1, 1, 1 }, segmentEvents);
+				Assert.fail(String.valueOf(segmentEvents));
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package pabx.read;
+
+import java.util.List;
+
+/**
+ * Interface to implement by services which want to receive a stream of 'T'
+ * by blocks (see Batcher)
+ *
+ * The list is reused for the next block, the implementation must copy
+ * the items it wants to keep.
+ */
+interface BatchInput<T> {
+	void receive(List<T> batch);
+}
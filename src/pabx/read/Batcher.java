@@ -0,0 +1,79 @@
+package pabx.read;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Collect a stream of 'T' in blocks and send the blocks to a BatchInput
+ *
+ * A block is sent when it is full, when its first item has waited longer than
+ * the time limit (if there is one) or when flush() is called at the end of the stream.
+ * The time limit is only checked when an item is received, an idle source has to call
+ * flushIfExpired() to get the last items delivered on time. The time comes from
+ * 'clock' (System.nanoTime() by default).
+ */
+class Batcher<T> implements Input<T> {
+	private final BatchInput<T> output;
+	private final int size;
+	private final long maxDelay;
+	private final ArrayList<T> batch;
+	private final LongSupplier clock;
+	private long first;
+
+	Batcher(BatchInput<T> output, int size) {
+		this(output, size, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	Batcher(BatchInput<T> output, int size, long maxDelay, TimeUnit unit) {
+		this(output, size, maxDelay, unit, System::nanoTime);
+	}
+
+	Batcher(BatchInput<T> output, int size, long maxDelay, TimeUnit unit, LongSupplier clock) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Invalid batch size " + size);
+		}
+		this.output = output;
+		this.size = size;
+		this.maxDelay = unit.toNanos(maxDelay);
+		batch = new ArrayList<T>(size);
+		this.clock = clock;
+	}
+
+	private boolean timed() {
+		return maxDelay != Long.MAX_VALUE;
+	}
+
+	@Override
+	public void receive(T item) {
+		if (timed() && batch.isEmpty()) {
+			first = clock.getAsLong();
+		}
+		batch.add(item);
+		if (batch.size() >= size || timed() && clock.getAsLong() - first >= maxDelay) {
+			flush();
+		}
+	}
+
+	/**
+	 * Send the pending items if the oldest one has waited longer than the time limit
+	 */
+	boolean flushIfExpired() {
+		boolean ret = false;
+		if (timed() && !batch.isEmpty() && clock.getAsLong() - first >= maxDelay) {
+			flush();
+			ret = true;
+		}
+		return ret;
+	}
+
+	/**
+	 * Send the pending items, to be called at the end of the stream
+	 */
+	void flush() {
+		if (!batch.isEmpty()) {
+			output.receive(batch);
+			batch.clear();
+		}
+	}
+}
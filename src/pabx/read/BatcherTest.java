@@ -0,0 +1,70 @@
+package pabx.read;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class BatcherTest extends TestCase {
+
+	static class Batches implements BatchInput<Integer> {
+		List<List<Integer>> batches = new ArrayList<List<Integer>>();
+
+		@Override
+		public void receive(List<Integer> batch) {
+			batches.add(new ArrayList<Integer>(batch));
+		}
+	}
+
+	public void testSizeAndEndOfStream() {
+		Batches batches = new Batches();
+		Batcher<Integer> b = new Batcher<Integer>(batches, 3);
+		for (int i = 0; i < 7; i++) {
+			b.receive(i);
+		}
+		Assert.assertEquals(2, batches.batches.size());
+		b.flush();
+		b.flush();
+		Assert.assertEquals("[[0, 1, 2], [3, 4, 5], [6]]", batches.batches.toString());
+	}
+
+	public void testTimeLimit() {
+		final long[] now = { 0 };
+		Batches batches = new Batches();
+		Batcher<Integer> b = new Batcher<Integer>(batches, 1000, 10, TimeUnit.MILLISECONDS, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return now[0];
+			}
+		});
+		b.receive(1);
+		now[0] += TimeUnit.MILLISECONDS.toNanos(9);
+		Assert.assertFalse(b.flushIfExpired());
+		now[0] += TimeUnit.MILLISECONDS.toNanos(1);
+		Assert.assertTrue(b.flushIfExpired());
+		Assert.assertFalse(b.flushIfExpired());
+		b.receive(2);
+		now[0] += TimeUnit.MILLISECONDS.toNanos(20);
+		b.receive(3);
+		b.receive(4);
+		Assert.assertEquals("[[1], [2, 3]]", batches.batches.toString());
+	}
+
+	public void testParserBatches() {
+		final List<String> blocks = new ArrayList<String>();
+		Batcher<Parser.Command> b = new Batcher<Parser.Command>(new BatchInput<Parser.Command>() {
+			@Override
+			public void receive(List<Parser.Command> batch) {
+				blocks.add(batch.toString());
+			}
+		}, 2);
+		Tokenizer t = new Tokenizer(new Parser(b));
+		char[] input = "<CR>A12349876<LF><CR>C12349876<LF><CR>I1234<LF>".toCharArray();
+		t.receive(input, 0, input.length);
+		b.flush();
+		Assert.assertEquals("[[A12349876, C12349876], [I1234]]", blocks.toString());
+	}
+}
@@ -0,0 +1,194 @@
+package pabx.read;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import pabx.read.Parser.Attempt;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Connect;
+import pabx.read.Parser.Dial;
+import pabx.read.Parser.Idle;
+
+/**
+ * Read a file written by BinaryCommandWriter
+ *
+ * The file is memory mapped, it can be replayed as a stream of 'Command' or accessed
+ * as columns: type(i), source(i), destination(i) and digits(i) for the i-th command.
+ *
+ * The file is mapped in windows of 2^windowShift bytes, each window overlaps the next
+ * one by a few bytes so that a field never straddles two windows. To find the digits of
+ * the i-th command without a scan, the number of Dial before every 2^rankShift records
+ * is kept in a small index built the first time it is needed.
+ */
+class BinaryCommandReader implements Closeable {
+	static int windowShift = 30;
+	static int rankShift = 12;
+	private static final int overlap = 8;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer[] windows;
+	private final int shift;
+	private final long mask;
+
+	private final long count;
+	private final long dials;
+	private final long offsetsPosition;
+	private final long digitsPosition;
+
+	private long[] rank;
+
+	BinaryCommandReader(String filename) throws IOException {
+		this(new RandomAccessFile(filename, "r").getChannel());
+	}
+
+	BinaryCommandReader(FileChannel channel) throws IOException {
+		this.channel = channel;
+		shift = windowShift;
+		mask = (1L << shift) - 1;
+		long size = channel.size();
+		if (size < BinaryCommandWriter.HEADER_SIZE) {
+			throw new IOException("Not a command file");
+		}
+		windows = new MappedByteBuffer[(int) ((size + mask) >>> shift)];
+		for (int i = 0; i < windows.length; i++) {
+			long position = (long) i << shift;
+			windows[i] = channel.map(MapMode.READ_ONLY, position, Math.min(size - position, mask + 1 + overlap));
+		}
+		if (getInt(0) != BinaryCommandWriter.MAGIC || getInt(4) != BinaryCommandWriter.VERSION) {
+			throw new IOException("Not a command file");
+		}
+		count = getLong(8);
+		dials = getLong(16);
+		offsetsPosition = BinaryCommandWriter.HEADER_SIZE + count * BinaryCommandWriter.RECORD_SIZE;
+		digitsPosition = offsetsPosition + (dials + 1) * 8;
+		if (digitsPosition + getLong(24) != size) {
+			throw new IOException("Truncated command file");
+		}
+	}
+
+	private byte getByte(long position) {
+		return windows[(int) (position >>> shift)].get((int) (position & mask));
+	}
+
+	private short getShort(long position) {
+		return windows[(int) (position >>> shift)].getShort((int) (position & mask));
+	}
+
+	private int getInt(long position) {
+		return windows[(int) (position >>> shift)].getInt((int) (position & mask));
+	}
+
+	private long getLong(long position) {
+		return windows[(int) (position >>> shift)].getLong((int) (position & mask));
+	}
+
+	private static long record(long i) {
+		return BinaryCommandWriter.HEADER_SIZE + i * BinaryCommandWriter.RECORD_SIZE;
+	}
+
+	/**
+	 * Number of commands
+	 */
+	long size() {
+		return count;
+	}
+
+	char type(long i) {
+		return (char) getByte(record(i));
+	}
+
+	int source(long i) {
+		return getShort(record(i) + 1);
+	}
+
+	int destination(long i) {
+		return getShort(record(i) + 3);
+	}
+
+	/**
+	 * Digits of the i-th command, which must be a Dial
+	 */
+	String digits(long i) {
+		return dialDigits(dialRank(i));
+	}
+
+	/**
+	 * Number of Dial before the i-th command
+	 */
+	private long dialRank(long i) {
+		if (rank == null) {
+			long[] r = new long[(int) (count >>> rankShift) + 1];
+			long n = 0;
+			for (long j = 0; j < count; j++) {
+				if ((j & ((1 << rankShift) - 1)) == 0) {
+					r[(int) (j >>> rankShift)] = n;
+				}
+				if (getByte(record(j)) == 'D') {
+					n++;
+				}
+			}
+			rank = r;
+		}
+		long n = rank[(int) (i >>> rankShift)];
+		for (long j = i >>> rankShift << rankShift; j < i; j++) {
+			if (getByte(record(j)) == 'D') {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	private String dialDigits(long dial) {
+		long from = getLong(offsetsPosition + dial * 8);
+		int length = (int) (getLong(offsetsPosition + dial * 8 + 8) - from);
+		char[] chars = new char[length];
+		for (int k = 0; k < length; k++) {
+			chars[k] = (char) getByte(digitsPosition + from + k);
+		}
+		return new String(chars);
+	}
+
+	Command command(long i) {
+		return command(i, -1);
+	}
+
+	private Command command(long i, long dial) {
+		long position = record(i);
+		int source = getShort(position + 1);
+		switch (getByte(position)) {
+		case 'A':
+			return new Attempt(source, (int) getShort(position + 3));
+		case 'C':
+			return new Connect(source, (int) getShort(position + 3));
+		case 'I':
+			return new Idle(source);
+		case 'D':
+			return new Dial(source, dialDigits(dial >= 0 ? dial : dialRank(i)));
+		default:
+			throw new IllegalStateException("Invalid record " + i);
+		}
+	}
+
+	/**
+	 * Send all the commands to 'output', in order
+	 */
+	void replay(Input<Command> output) {
+		long dial = 0;
+		for (long i = 0; i < count; i++) {
+			boolean isDial = getByte(record(i)) == 'D';
+			output.receive(command(i, dial));
+			if (isDial) {
+				dial++;
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
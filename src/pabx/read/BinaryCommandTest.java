@@ -0,0 +1,95 @@
+package pabx.read;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Dial;
+
+public class BinaryCommandTest extends TestCase {
+
+	private static List<Command> parse(String input) {
+		final List<Command> commands = new ArrayList<Command>();
+		FusedScanner scanner = new FusedScanner(new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				commands.add(c);
+			}
+		});
+		char[] chars = input.toCharArray();
+		scanner.receive(chars, 0, chars.length);
+		return commands;
+	}
+
+	private static File save(List<Command> commands, int bufferSize) throws IOException {
+		File file = File.createTempFile("pabx", ".bin");
+		file.deleteOnExit();
+		BinaryCommandWriter writer = new BinaryCommandWriter(
+				new RandomAccessFile(file, "rw").getChannel(), bufferSize);
+		for (Command c : commands) {
+			writer.receive(c);
+		}
+		writer.close();
+		return file;
+	}
+
+	private void checkRoundTrip(String input, int bufferSize) throws IOException {
+		List<Command> commands = parse(input);
+		File file = save(commands, bufferSize);
+
+		FusedScannerTest.Commands replayed = new FusedScannerTest.Commands();
+		FusedScannerTest.Commands expected = new FusedScannerTest.Commands();
+		for (Command c : commands) {
+			expected.receive(c);
+		}
+		try (BinaryCommandReader reader = new BinaryCommandReader(file.getPath())) {
+			Assert.assertEquals(commands.size(), reader.size());
+			reader.replay(replayed);
+			Assert.assertEquals(expected.output.toString(), replayed.output.toString());
+
+			// random access, in any order
+			Random random = new Random(1);
+			for (int k = 0; k < 1000 && !commands.isEmpty(); k++) {
+				int i = random.nextInt(commands.size());
+				Command c = commands.get(i);
+				Assert.assertEquals(c.toString(), reader.command(i).toString());
+				Assert.assertEquals(c.toString().charAt(0), reader.type(i));
+				if (c instanceof Dial) {
+					Assert.assertEquals(((Dial) c).getDigits(), reader.digits(i));
+				}
+			}
+		}
+		Assert.assertTrue(file.length() * 3 < input.length());
+	}
+
+	public void testRoundTrip() throws IOException {
+		checkRoundTrip(GenerateEventStream.generate(100, 100000, new int[] { 1, 1, 1, 4 }), 1024 * 1024);
+	}
+
+	public void testSmallBuffersAndWindows() throws IOException {
+		int windowShift = BinaryCommandReader.windowShift;
+		int rankShift = BinaryCommandReader.rankShift;
+		BinaryCommandReader.windowShift = 10;
+		BinaryCommandReader.rankShift = 3;
+		try {
+			checkRoundTrip(GenerateEventStream.generate(3, 5000, new int[] { 1, 1, 1, 8 }), 64);
+		} finally {
+			BinaryCommandReader.windowShift = windowShift;
+			BinaryCommandReader.rankShift = rankShift;
+		}
+	}
+
+	public void testEmpty() throws IOException {
+		File file = save(new ArrayList<Command>(), 64);
+		try (BinaryCommandReader reader = new BinaryCommandReader(file.getPath())) {
+			Assert.assertEquals(0, reader.size());
+		}
+	}
+}
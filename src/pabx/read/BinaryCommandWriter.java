@@ -0,0 +1,162 @@
+package pabx.read;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import pabx.read.Parser.Attempt;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Connect;
+import pabx.read.Parser.Dial;
+import pabx.read.Parser.Idle;
+
+/**
+ * Save a stream of 'Command' in a compact binary file, read by BinaryCommandReader
+ *
+ * header:  magic (int), version (int), number of commands (long), number of Dial (long),
+ *          size of the digits (long)
+ * records: one fixed size record per command, type ('A', 'C', 'I' or 'D', byte),
+ *          source (short), destination (short, 0 for 'I' and 'D')
+ * offsets: for the n-th Dial, its digits go from offsets[n] to offsets[n + 1] (long)
+ * digits:  the digits of all the Dial, in ASCII
+ *
+ * The offsets and the digits are written to temporary files while the records are
+ * received and appended to the file when it is closed.
+ */
+class BinaryCommandWriter implements Input<Command>, Closeable {
+	static final int MAGIC = 0x50414258;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int RECORD_SIZE = 5;
+
+	static int defaultBufferSize = 1024 * 1024;
+
+	private final FileChannel channel;
+	private final Path offsetsPath;
+	private final Path digitsPath;
+	private final FileChannel offsets;
+	private final FileChannel digits;
+	private final ByteBuffer recordBuffer;
+	private final ByteBuffer offsetBuffer;
+	private final ByteBuffer digitBuffer;
+
+	private long count;
+	private long dials;
+	private long digitsLength;
+
+	BinaryCommandWriter(String filename) throws IOException {
+		this(new RandomAccessFile(filename, "rw").getChannel(), defaultBufferSize);
+	}
+
+	BinaryCommandWriter(FileChannel channel, int bufferSize) throws IOException {
+		this.channel = channel;
+		channel.truncate(0);
+		channel.position(HEADER_SIZE);
+		offsetsPath = Files.createTempFile("pabx", ".offsets");
+		digitsPath = Files.createTempFile("pabx", ".digits");
+		offsets = FileChannel.open(offsetsPath, StandardOpenOption.WRITE, StandardOpenOption.READ);
+		digits = FileChannel.open(digitsPath, StandardOpenOption.WRITE, StandardOpenOption.READ);
+		recordBuffer = ByteBuffer.allocateDirect(bufferSize / RECORD_SIZE * RECORD_SIZE);
+		offsetBuffer = ByteBuffer.allocateDirect(bufferSize / 8 * 8);
+		digitBuffer = ByteBuffer.allocateDirect(bufferSize);
+		offsetBuffer.putLong(0);
+	}
+
+	@Override
+	public void receive(Command c) {
+		try {
+			if (!recordBuffer.hasRemaining()) {
+				write(channel, recordBuffer);
+			}
+			if (c instanceof Dial) {
+				Dial d = (Dial) c;
+				record('D', d.source, 0);
+				String s = d.getDigits() == null ? "" : d.getDigits();
+				for (int i = 0; i < s.length(); i++) {
+					if (!digitBuffer.hasRemaining()) {
+						write(digits, digitBuffer);
+					}
+					digitBuffer.put((byte) s.charAt(i));
+				}
+				digitsLength += s.length();
+				if (!offsetBuffer.hasRemaining()) {
+					write(offsets, offsetBuffer);
+				}
+				offsetBuffer.putLong(digitsLength);
+				dials++;
+			} else if (c instanceof Attempt) {
+				Attempt a = (Attempt) c;
+				record('A', a.source, a.destination);
+			} else if (c instanceof Connect) {
+				Connect cn = (Connect) c;
+				record('C', cn.source, cn.destination);
+			} else if (c instanceof Idle) {
+				record('I', ((Idle) c).source, 0);
+			} else {
+				throw new IllegalArgumentException("Unknown command " + c);
+			}
+			count++;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void record(char type, int source, int destination) {
+		recordBuffer.put((byte) type);
+		recordBuffer.putShort((short) source);
+		recordBuffer.putShort((short) destination);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	private void append(FileChannel from) throws IOException {
+		long size = from.size();
+		long position = 0;
+		while (position < size) {
+			position += from.transferTo(position, size - position, channel);
+		}
+	}
+
+	long count() {
+		return count;
+	}
+
+	/**
+	 * Append the offsets and the digits and write the header
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			write(channel, recordBuffer);
+			write(offsets, offsetBuffer);
+			write(digits, digitBuffer);
+			append(offsets);
+			append(digits);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(count).putLong(dials).putLong(digitsLength);
+			header.flip();
+			long position = 0;
+			while (header.hasRemaining()) {
+				position += channel.write(header, position);
+			}
+		} finally {
+			channel.close();
+			offsets.close();
+			digits.close();
+			Files.deleteIfExists(offsetsPath);
+			Files.deleteIfExists(digitsPath);
+		}
+	}
+}
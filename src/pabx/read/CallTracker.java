@@ -0,0 +1,192 @@
+package pabx.read;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+import pabx.read.Parser.Attempt;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Connect;
+import pabx.read.Parser.Dial;
+import pabx.read.Parser.Idle;
+
+/**
+ * Keep track of the calls from the stream of 'Command'
+ *
+ * <CR>Axxxxyyyy<LF> -> xxxx calls yyyy, both are RINGING
+ * <CR>Cxxxxyyyy<LF> -> yyyy picks up, both are CONNECTED
+ * <CR>Ixxxx<LF> -> xxxx hangs up, the call is over for both
+ * Dial commands of a party are attached to its call
+ *
+ * The state of each extension is kept in primitive arrays indexed by the
+ * extension, the call itself is stored at the index of the caller.
+ * A CallRecord is sent when a call is over. An extension that calls or
+ * connects while it is already in a call ends the previous call first
+ * (the exchange would not send that, the generator does).
+ */
+class CallTracker implements Input<Command> {
+	static final int EXTENSIONS = DialAccumulator.EXTENSIONS;
+
+	/**
+	 * States of an extension
+	 */
+	static final byte IDLE = 0;
+	static final byte RINGING = 1;
+	static final byte CONNECTED = 2;
+
+	static final LongSupplier systemClock = new LongSupplier() {
+		@Override
+		public long getAsLong() {
+			return System.currentTimeMillis();
+		}
+	};
+
+	/**
+	 * Call sent to the output when it is over, times come from the clock of the
+	 * tracker, 'connected' is -1 if the call was never answered
+	 */
+	static class CallRecord {
+		final int caller;
+		final int callee;
+		final long started;
+		final long connected;
+		final long ended;
+		final String dialed;
+
+		CallRecord(int caller, int callee, long started, long connected, long ended, String dialed) {
+			this.caller = caller;
+			this.callee = callee;
+			this.started = started;
+			this.connected = connected;
+			this.ended = ended;
+			this.dialed = dialed;
+		}
+
+		boolean answered() {
+			return connected >= 0;
+		}
+
+		long duration() {
+			return ended - started;
+		}
+
+		long talkTime() {
+			return answered() ? ended - connected : 0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%4d->%4d %d %d%s", caller, callee, duration(), talkTime(),
+					dialed.isEmpty() ? "" : " " + dialed);
+		}
+	}
+
+	private final Input<CallRecord> output;
+	private final LongSupplier clock;
+
+	private final byte[] state = new byte[EXTENSIONS];
+	private final short[] peer = new short[EXTENSIONS];
+	private final boolean[] caller = new boolean[EXTENSIONS];
+	private final long[] started = new long[EXTENSIONS];
+	private final long[] connected = new long[EXTENSIONS];
+	private final String[] dialed = new String[EXTENSIONS];
+	private int calls;
+
+	CallTracker(Input<CallRecord> output) {
+		this(output, systemClock);
+	}
+
+	CallTracker(Input<CallRecord> output, LongSupplier clock) {
+		this.output = output;
+		this.clock = clock;
+		Arrays.fill(peer, (short) -1);
+	}
+
+	@Override
+	public void receive(Command c) {
+		if (c instanceof Attempt) {
+			Attempt a = (Attempt) c;
+			start(a.source, a.destination, RINGING);
+		} else if (c instanceof Connect) {
+			Connect cn = (Connect) c;
+			int source = cn.source;
+			int destination = cn.destination;
+			if (state[source] == RINGING && peer[source] == destination) {
+				int owner = caller[source] ? source : destination;
+				connected[owner] = clock.getAsLong();
+				state[source] = CONNECTED;
+				state[destination] = CONNECTED;
+			} else {
+				start(source, destination, CONNECTED);
+			}
+		} else if (c instanceof Idle) {
+			end(((Idle) c).source);
+		} else if (c instanceof Dial) {
+			Dial d = (Dial) c;
+			int source = d.source;
+			if (state[source] != IDLE && !d.getDigits().isEmpty()) {
+				int owner = caller[source] ? source : peer[source];
+				dialed[owner] = dialed[owner].isEmpty() ? d.getDigits() : dialed[owner] + " " + d.getDigits();
+			}
+		}
+	}
+
+	private void start(int source, int destination, byte newState) {
+		end(source);
+		end(destination);
+		long now = clock.getAsLong();
+		state[source] = newState;
+		state[destination] = newState;
+		peer[source] = (short) destination;
+		peer[destination] = (short) source;
+		caller[source] = true;
+		caller[destination] = false;
+		started[source] = now;
+		connected[source] = newState == CONNECTED ? now : -1;
+		dialed[source] = "";
+		calls++;
+	}
+
+	/**
+	 * End the call of 'extension' if it is in one
+	 */
+	private void end(int extension) {
+		if (state[extension] != IDLE) {
+			int other = peer[extension];
+			int owner = caller[extension] ? extension : other;
+			int callee = owner == extension ? other : extension;
+			CallRecord record = new CallRecord(owner, callee, started[owner], connected[owner],
+					clock.getAsLong(), dialed[owner]);
+			state[extension] = IDLE;
+			state[other] = IDLE;
+			peer[extension] = -1;
+			peer[other] = -1;
+			dialed[owner] = null;
+			calls--;
+			output.receive(record);
+		}
+	}
+
+	/**
+	 * End all the calls in progress, at the end of the stream
+	 */
+	void endAll() {
+		for (int extension = 0; extension < EXTENSIONS; extension++) {
+			end(extension);
+		}
+	}
+
+	byte state(int extension) {
+		return state[extension];
+	}
+
+	int peer(int extension) {
+		return peer[extension];
+	}
+
+	/**
+	 * Number of calls in progress
+	 */
+	int calls() {
+		return calls;
+	}
+}
@@ -0,0 +1,74 @@
+package pabx.read;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.read.CallTracker.CallRecord;
+
+public class CallTrackerTest extends TestCase {
+
+	/**
+	 * Clock moving forward by 10 at each reading
+	 */
+	static class Ticks implements LongSupplier {
+		long now;
+
+		@Override
+		public long getAsLong() {
+			now += 10;
+			return now;
+		}
+	}
+
+	private List<CallRecord> records = new ArrayList<CallRecord>();
+
+	private CallTracker parse(String input) {
+		CallTracker tracker = new CallTracker(new Input<CallRecord>() {
+			@Override
+			public void receive(CallRecord r) {
+				records.add(r);
+			}
+		}, new Ticks());
+		char[] chars = input.toCharArray();
+		new FusedScanner(tracker).receive(chars, 0, chars.length);
+		return tracker;
+	}
+
+	public void testAnsweredCall() {
+		CallTracker tracker = parse("<CR>A12349876<LF><CR>C12349876<LF><CR>D12343<LF><CR>D1234#<LF>");
+		Assert.assertEquals(CallTracker.CONNECTED, tracker.state(9876));
+		Assert.assertEquals(1234, tracker.peer(9876));
+		Assert.assertEquals(1, tracker.calls());
+		Assert.assertTrue(records.isEmpty());
+
+		char[] chars = "<CR>I9876<LF>".toCharArray();
+		new FusedScanner(tracker).receive(chars, 0, chars.length);
+		Assert.assertEquals(1, records.size());
+		CallRecord r = records.get(0);
+		Assert.assertEquals(1234, r.caller);
+		Assert.assertEquals(9876, r.callee);
+		Assert.assertTrue(r.answered());
+		Assert.assertEquals(20, r.duration());
+		Assert.assertEquals(10, r.talkTime());
+		Assert.assertEquals("3", r.dialed);
+		Assert.assertEquals(CallTracker.IDLE, tracker.state(1234));
+		Assert.assertEquals(0, tracker.calls());
+	}
+
+	public void testUnansweredAndReplacedCalls() {
+		CallTracker tracker = parse("<CR>A12349876<LF><CR>I1234<LF><CR>A12349876<LF><CR>A98765555<LF>");
+		Assert.assertEquals(2, records.size());
+		Assert.assertFalse(records.get(0).answered());
+		Assert.assertEquals(0, records.get(0).talkTime());
+		Assert.assertEquals(CallTracker.RINGING, tracker.state(5555));
+		Assert.assertEquals(CallTracker.IDLE, tracker.state(1234));
+
+		tracker.endAll();
+		Assert.assertEquals(3, records.size());
+		Assert.assertEquals(9876, records.get(2).caller);
+		Assert.assertEquals(0, tracker.calls());
+	}
+}
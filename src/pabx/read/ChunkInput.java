@@ -0,0 +1,23 @@
+package pabx.read;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface to implement by services which want to receive a stream of chars
+ * in chunks instead of one 'Integer' at a time
+ *
+ * The slices are only valid for the duration of the call, the implementation
+ * must copy what it wants to keep.
+ */
+interface ChunkInput {
+	/**
+	 * Receive the chars chars[offset] to chars[offset + length - 1]
+	 */
+	void receive(char[] chars, int offset, int length);
+
+	/**
+	 * Receive the ASCII bytes between the position and the limit of the
+	 * buffer, the position is moved to the limit
+	 */
+	void receive(ByteBuffer bytes);
+}
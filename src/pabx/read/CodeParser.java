@@ -0,0 +1,268 @@
+package pabx.read;
+
+import pabx.read.Parser.Attempt;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Connect;
+import pabx.read.Parser.Dial;
+import pabx.read.Parser.Idle;
+import pabx.read.Tokenizer.Token;
+
+/**
+ * Parser without the State objects
+ *
+ * Same semantic as Parser, including the way malformed input is handled and the
+ * errors that are reported, but the state is an 'int' and the registers of the
+ * command being parsed are 'int' fields, the tokens are dispatched on their code
+ * with a switch. The only allocations are the commands and the errors.
+ *
+ * The tokens can be received as Token or directly as codes (see IntRing), which
+ * saves the lookup in Tokenizer.tokens. It is also the parser of FusedScanner, which
+ * reads and restores its registers for the snapshots and can make it give the commands
+ * through a single CommandView (flyweight) instead of allocating them.
+ */
+class CodeParser implements Input<Token>, TokenParser {
+	/**
+	 * States, they match the State classes of Parser
+	 */
+	static final int INITIAL = 0;
+	static final int CR = 1;
+	static final int ATTEMPT = 2;
+	static final int CONNECT = 3;
+	static final int IDLE = 4;
+	static final int DIAL = 5;
+
+	int state = INITIAL;
+
+	/**
+	 * Registers of the command being parsed (see FusedScanner.snapshot)
+	 */
+	int index;
+	int source;
+	int destination;
+	int newDigit;
+	String allDigits;
+
+	/**
+	 * Digits already dialed by each extension (see Parser.DialDigitsState)
+	 */
+	final DialAccumulator dialedNumbers;
+
+	Input<Command> output;
+
+	/**
+	 * Output of a flyweight parser, which then does not use 'output'
+	 */
+	Input<CommandView> views;
+	CommandView view;
+
+	/**
+	 * Errors, with the offset of the last char of the token in the stream when the
+	 * offsets of the tokens are given, else the offset of the token (see Parser)
+	 */
+	Input<ParseError> errors = ErrorReporter.shared;
+	/**
+	 * Offset of the next token
+	 */
+	private long position;
+	/**
+	 * Offset of the first token skipped, -1 when not skipping
+	 */
+	long skipStart = -1;
+
+	private ParserMetrics.Probe probe;
+
+	CodeParser(Input<Command> output) {
+		this(output, new FlatDialAccumulator());
+	}
+
+	CodeParser(Input<Command> output, DialAccumulator dialedNumbers) {
+		this.output = output;
+		this.dialedNumbers = dialedNumbers;
+	}
+
+	/**
+	 * Count the commands and errors in 'metrics', null to stop
+	 */
+	void setMetrics(ParserMetrics metrics) {
+		setProbe(metrics == null ? null : metrics.probe(dialedNumbers));
+	}
+
+	/**
+	 * Count in the probe of the engine that feeds the parser (FusedScanner)
+	 */
+	void setProbe(ParserMetrics.Probe probe) {
+		this.probe = probe;
+	}
+
+	@Override
+	public void flushMetrics() {
+		if (probe != null) {
+			probe.flush();
+		}
+	}
+
+	@Override
+	public void receive(Token t) {
+		if (t != null) {
+			receive(t.code);
+		}
+	}
+
+	void receive(int code) {
+		receive(code, position, position);
+	}
+
+	@Override
+	public boolean isSkipping() {
+		return skipStart >= 0;
+	}
+
+	@Override
+	public void receive(int code, long start, long end) {
+		position = end + 1;
+		if (skipStart >= 0) {
+			// after an error only a <CR> can start a command
+			if (code != Tokenizer.CODE_CR) {
+				return;
+			}
+			if (start > skipStart) {
+				ErrorReporter.report(errors, ParseError.Kind.SKIPPED, skipStart,
+						(int) Math.min(Integer.MAX_VALUE, start - skipStart));
+			}
+			skipStart = -1;
+		}
+		switch (state) {
+		case INITIAL:
+			if (code == Tokenizer.CODE_CR) {
+				if (probe != null) {
+					probe.frame();
+				}
+				state = CR;
+			} else {
+				unexpected(code);
+			}
+			break;
+		case CR:
+			index = 0;
+			source = 0;
+			destination = 0;
+			newDigit = -1;
+			allDigits = null;
+			switch (code) {
+			case Tokenizer.CODE_ATTEMPT:
+				state = ATTEMPT;
+				break;
+			case Tokenizer.CODE_CONNECT:
+				state = CONNECT;
+				break;
+			case Tokenizer.CODE_IDLE:
+				state = IDLE;
+				break;
+			case Tokenizer.CODE_DIAL:
+				state = DIAL;
+				break;
+			default:
+				state = INITIAL;
+			}
+			break;
+		case ATTEMPT:
+		case CONNECT:
+			if (code < 10 && index < 8) {
+				if (index < 4) {
+					source = source * 10 + code;
+				} else {
+					destination = destination * 10 + code;
+				}
+				index++;
+			} else if (index == 8 && code == Tokenizer.CODE_LF) {
+				boolean attempt = state == ATTEMPT;
+				state = INITIAL;
+				count(attempt ? ParserMetrics.ATTEMPT : ParserMetrics.CONNECT);
+				if (views != null) {
+					view.destination = destination;
+					emit(attempt ? CommandView.ATTEMPT : CommandView.CONNECT);
+				} else {
+					output.receive(attempt ? new Attempt(source, destination) : new Connect(source, destination));
+				}
+			} else {
+				unexpected(code);
+			}
+			break;
+		case IDLE:
+			if (code < 10 && index < 4) {
+				source = source * 10 + code;
+				index++;
+			} else if (index == 4 && code == Tokenizer.CODE_LF) {
+				state = INITIAL;
+				count(ParserMetrics.IDLE);
+				if (views != null) {
+					emit(CommandView.IDLE);
+				} else {
+					output.receive(new Idle(source));
+				}
+			} else {
+				unexpected(code);
+			}
+			break;
+		case DIAL:
+			if (code < 10 && index < 4) {
+				source = source * 10 + code;
+				index++;
+			} else if (code < 10 && index == 4) {
+				newDigit = code;
+				index++;
+			} else if (index == 4 && code == Tokenizer.CODE_SHARP) {
+				// All digits have been received
+				if (views != null) {
+					view.digitsLength = dialedNumbers.take(source, view.digits(dialedNumbers.length(source)));
+				} else {
+					allDigits = dialedNumbers.take(source);
+				}
+				index++;
+			} else if (index == 5 && code == Tokenizer.CODE_LF) {
+				state = INITIAL;
+				if (newDigit >= 0) {
+					dialedNumbers.append(source, newDigit);
+				} else {
+					count(ParserMetrics.DIAL);
+					if (views != null) {
+						emit(CommandView.DIAL);
+					} else {
+						output.receive(new Dial(source, allDigits));
+					}
+				}
+			} else {
+				unexpected(code);
+			}
+			break;
+		}
+	}
+
+	private void count(int type) {
+		if (probe != null) {
+			probe.command(type);
+			probe.tick();
+		}
+	}
+
+	/**
+	 * Give the command to 'views', the digits of a Dial are already in the view
+	 */
+	private void emit(char type) {
+		view.type = type;
+		view.source = source;
+		if (type != CommandView.DIAL) {
+			view.digitsLength = 0;
+		}
+		views.receive(view);
+	}
+
+	private void unexpected(int code) {
+		if (probe != null) {
+			probe.parserError();
+		}
+		ErrorReporter.report(errors, ParseError.Kind.UNEXPECTED_TOKEN, position - 1, code);
+		state = INITIAL;
+		skipStart = position;
+	}
+}
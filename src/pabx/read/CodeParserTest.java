@@ -0,0 +1,109 @@
+package pabx.read;
+
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.read.Tokenizer.Token;
+
+public class CodeParserTest extends TestCase {
+
+	/**
+	 * Parser and CodeParser fed with the same tokens
+	 */
+	static class Both implements Input<Token> {
+		final FusedScannerTest.Commands parserCommands = new FusedScannerTest.Commands();
+		final FusedScannerTest.Commands codeCommands = new FusedScannerTest.Commands();
+		final ParseErrorTest.Errors parserErrors = new ParseErrorTest.Errors();
+		final ParseErrorTest.Errors codeErrors = new ParseErrorTest.Errors();
+		final ParserMetrics parserMetrics = new ParserMetrics();
+		final ParserMetrics codeMetrics = new ParserMetrics();
+		final Parser parser = new Parser(parserCommands);
+		final CodeParser codeParser = new CodeParser(codeCommands);
+
+		Both() {
+			parser.errors = parserErrors;
+			parser.setMetrics(parserMetrics);
+			codeParser.errors = codeErrors;
+			codeParser.setMetrics(codeMetrics);
+		}
+
+		@Override
+		public void receive(Token t) {
+			parser.receive(t);
+			codeParser.receive(t);
+		}
+
+		void check() {
+			parser.flushMetrics();
+			codeParser.flushMetrics();
+			Assert.assertEquals(parserCommands.output.toString(), codeCommands.output.toString());
+			Assert.assertEquals(parserErrors.errors, codeErrors.errors);
+			for (int source = 0; source < DialAccumulator.EXTENSIONS; source++) {
+				Assert.assertEquals(parser.dialedNumbers.peek(source), codeParser.dialedNumbers.peek(source));
+			}
+			ParserMetrics.Snapshot p = parserMetrics.snapshot();
+			ParserMetrics.Snapshot c = codeMetrics.snapshot();
+			for (int i = 0; i < ParserMetrics.TYPES; i++) {
+				Assert.assertEquals(p.commands[i], c.commands[i]);
+			}
+			Assert.assertEquals(p.parserErrors, c.parserErrors);
+			Assert.assertEquals(p.resyncs, c.resyncs);
+		}
+	}
+
+	public void testStreams() {
+		Random random = new Random(8);
+		for (int n = 0; n < 20; n++) {
+			Both both = new Both();
+			Tokenizer tokenizer = new Tokenizer(both);
+			tokenizer.errors = ParseErrorTest.ignore;
+			char[] chars = FusedScannerTest.randomInput(random, 300, n == 0 ? 0 : 0.2).toCharArray();
+			tokenizer.receive(chars, 0, chars.length);
+			both.check();
+		}
+	}
+
+	/**
+	 * Random token sequences, biased toward well formed frames so all the states are reached
+	 */
+	public void testRandomTokens() {
+		Random random = new Random(9);
+		int[] frame = new int[16];
+		for (int n = 0; n < 50; n++) {
+			Both both = new Both();
+			for (int f = 0; f < 500; f++) {
+				int length = 0;
+				frame[length++] = Tokenizer.CODE_CR;
+				frame[length++] = Tokenizer.CODE_ATTEMPT + random.nextInt(4);
+				for (int i = 0; i < 4; i++) {
+					frame[length++] = random.nextInt(2);
+				}
+				int extra = random.nextInt(5);
+				for (int i = 0; i < extra; i++) {
+					frame[length++] = random.nextInt(4) == 0 ? Tokenizer.CODE_SHARP : random.nextInt(10);
+				}
+				frame[length++] = Tokenizer.CODE_LF;
+				if (random.nextInt(4) == 0) {
+					frame[random.nextInt(length)] = random.nextInt(Tokenizer.CODES);
+				}
+				for (int i = 0; i < length; i++) {
+					both.receive(Tokenizer.tokens[frame[i]]);
+				}
+			}
+			both.check();
+		}
+	}
+
+	public void testCodes() {
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		CodeParser parser = new CodeParser(commands);
+		int[] codes = { Tokenizer.CODE_CR, Tokenizer.CODE_IDLE, 1, 2, 3, 4, Tokenizer.CODE_LF, Tokenizer.CODE_CR,
+				Tokenizer.CODE_DIAL, 1, 2, 3, 4, 7, Tokenizer.CODE_LF, Tokenizer.CODE_CR, Tokenizer.CODE_DIAL, 1, 2, 3,
+				4, Tokenizer.CODE_SHARP, Tokenizer.CODE_LF };
+		for (int code : codes) {
+			parser.receive(code);
+		}
+		Assert.assertEquals("I1234 D12347 ", commands.output.toString());
+	}
+}
@@ -0,0 +1,246 @@
+package pabx.read;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import pabx.read.Parser.Attempt;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Connect;
+import pabx.read.Parser.Dial;
+import pabx.read.Parser.Idle;
+import pabx.read.Parser.SourceOnly;
+
+/**
+ * Print the commands, one per line, as Command.toString() would, without the cost of
+ * String.format and of a console write per command
+ *
+ * The commands are formatted straight into a byte buffer (the numbers are padded to 4
+ * chars like "%4d"). When the buffer is full it is handed to a writer thread through a
+ * SpscRing and the formatting goes on in the next free buffer, the writer writes the
+ * buffers to the channel and gives them back through a second ring.
+ *
+ * Not thread safe, the commands must come from a single thread. drain() and close()
+ * write what is left and wait for the writer.
+ */
+class CommandPrinter implements Input<Command>, Closeable {
+	static int defaultBufferSize = 256 * 1024;
+	static int buffers = 4;
+
+	private static final byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+	/**
+	 * Longest line without the digits of a Dial: type, 2 ints and the separator
+	 */
+	private static final int maxLine = 1 + 2 * 11 + lineSeparator.length;
+	private static final ByteBuffer EOS = ByteBuffer.allocate(0);
+
+	private final WritableByteChannel channel;
+	private final boolean closeChannel;
+	private final SpscRing<ByteBuffer> full;
+	private final SpscRing<ByteBuffer> free;
+	private final Thread writer;
+	/**
+	 * First failure of the writer, which goes on recycling the buffers without writing
+	 * them so that the producer never waits for it
+	 */
+	private volatile Throwable failure;
+	/**
+	 * Buffers handed to the writer, and written by it (even when the write failed)
+	 */
+	private long sent;
+	private volatile long written;
+
+	private ByteBuffer current;
+	private byte[] bytes;
+	private int length;
+
+	CommandPrinter(WritableByteChannel channel, boolean closeChannel) {
+		this(channel, closeChannel, defaultBufferSize);
+	}
+
+	CommandPrinter(WritableByteChannel channel, boolean closeChannel, int bufferSize) {
+		if (bufferSize < maxLine) {
+			throw new IllegalArgumentException("Invalid buffer size " + bufferSize);
+		}
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+		full = new SpscRing<ByteBuffer>(buffers, WaitStrategy.PARK);
+		free = new SpscRing<ByteBuffer>(buffers, WaitStrategy.PARK);
+		// filled before the writer starts, which then is the only producer
+		for (int i = 1; i < buffers; i++) {
+			free.put(ByteBuffer.allocate(bufferSize));
+		}
+		current = ByteBuffer.allocate(bufferSize);
+		bytes = current.array();
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "pabx-printer");
+		// a program that fails before close() must still be able to exit
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Printer on the standard output, which stays open
+	 */
+	static CommandPrinter stdout() {
+		return new CommandPrinter(new FileOutputStream(FileDescriptor.out).getChannel(), false);
+	}
+
+	@Override
+	public void receive(Command c) {
+		if (bytes.length - length < maxLine) {
+			send();
+		}
+		if (c instanceof Attempt) {
+			bytes[length++] = 'A';
+			two((SourceOnly) c, ((Attempt) c).destination);
+		} else if (c instanceof Connect) {
+			bytes[length++] = 'C';
+			two((SourceOnly) c, ((Connect) c).destination);
+		} else if (c instanceof Idle) {
+			bytes[length++] = 'I';
+			length = number(bytes, length, ((Idle) c).source);
+		} else if (c instanceof Dial) {
+			Dial d = (Dial) c;
+			bytes[length++] = 'D';
+			length = number(bytes, length, d.source);
+			String digits = d.getDigits();
+			for (int i = 0; i < digits.length(); i++) {
+				if (length == bytes.length) {
+					send();
+				}
+				bytes[length++] = (byte) digits.charAt(i);
+			}
+			if (bytes.length - length < lineSeparator.length) {
+				send();
+			}
+		} else {
+			throw new IllegalArgumentException("Unknown command " + c);
+		}
+		for (byte b : lineSeparator) {
+			bytes[length++] = b;
+		}
+	}
+
+	private void two(SourceOnly c, int destination) {
+		length = number(bytes, length, c.source);
+		length = number(bytes, length, destination);
+	}
+
+	/**
+	 * Write 'v' at 'p' like "%4d", returns the position after it
+	 */
+	static int number(byte[] b, int p, int v) {
+		if (v >= 0 && v < 10000) {
+			b[p] = (byte) (v >= 1000 ? '0' + v / 1000 : ' ');
+			b[p + 1] = (byte) (v >= 100 ? '0' + v / 100 % 10 : ' ');
+			b[p + 2] = (byte) (v >= 10 ? '0' + v / 10 % 10 : ' ');
+			b[p + 3] = (byte) ('0' + v % 10);
+			return p + 4;
+		}
+		// outside of the extensions, not on the hot path
+		String s = String.format("%4d", v);
+		for (int i = 0; i < s.length(); i++) {
+			b[p++] = (byte) s.charAt(i);
+		}
+		return p;
+	}
+
+	/**
+	 * Hand what has been formatted so far to the writer, e.g. when the input is idle
+	 */
+	void flush() {
+		if (length > 0) {
+			send();
+		}
+	}
+
+	/**
+	 * flush() and wait until the writer has written everything, e.g. before saving the
+	 * position of the input (FollowFile)
+	 */
+	void drain() {
+		flush();
+		for (int spins = 0; written != sent; spins++) {
+			WaitStrategy.PARK.idle(spins);
+		}
+		check();
+	}
+
+	/**
+	 * Rethrow the failure of the writer, if any
+	 */
+	private void check() {
+		Throwable failure = this.failure;
+		if (failure instanceof IOException) {
+			throw new UncheckedIOException((IOException) failure);
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	private void send() {
+		check();
+		current.limit(length);
+		current.position(0);
+		full.put(current);
+		sent++;
+		current = free.take();
+		bytes = current.array();
+		length = 0;
+	}
+
+	/**
+	 * Writer thread
+	 */
+	private void write() {
+		ByteBuffer buffer;
+		while ((buffer = full.take()) != EOS) {
+			try {
+				while (failure == null && buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			} catch (Throwable e) {
+				// e.g. a RuntimeException from a custom channel
+				failure = e;
+			}
+			buffer.clear();
+			written++;
+			free.put(buffer);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (length > 0) {
+			current.limit(length);
+			current.position(0);
+			full.put(current);
+			length = 0;
+		}
+		full.put(EOS);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (closeChannel) {
+			channel.close();
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		check();
+	}
+}
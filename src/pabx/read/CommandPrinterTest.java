@@ -0,0 +1,91 @@
+package pabx.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream;
+import pabx.read.Parser.Command;
+
+public class CommandPrinterTest extends TestCase {
+
+	private void checkSameAsToString(List<Command> commands, int bufferSize) throws IOException {
+		StringBuilder expected = new StringBuilder();
+		for (Command c : commands) {
+			expected.append(c.toString()).append(System.lineSeparator());
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		CommandPrinter printer = new CommandPrinter(Channels.newChannel(out), true, bufferSize);
+		for (Command c : commands) {
+			printer.receive(c);
+		}
+		printer.close();
+		Assert.assertEquals(expected.toString(), out.toString("US-ASCII"));
+	}
+
+	public void testGenerated() throws IOException {
+		final List<Command> commands = new ArrayList<Command>();
+		FusedScanner scanner = new FusedScanner(new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				commands.add(c);
+			}
+		});
+		char[] chars = GenerateEventStream.generate(10, 10000, new int[] { 1, 1, 1, 1 }).toCharArray();
+		scanner.receive(chars, 0, chars.length);
+		checkSameAsToString(commands, 1 << 16);
+		checkSameAsToString(commands, 40);
+	}
+
+	public void testPadding() throws IOException {
+		List<Command> commands = new ArrayList<Command>();
+		commands.add(new Parser.Attempt(7, 42));
+		commands.add(new Parser.Connect(123, 12345));
+		commands.add(new Parser.Idle(0));
+		commands.add(new Parser.Dial(1, ""));
+		commands.add(new Parser.Dial(9999, "1234567890123456789012345678901234567890123456789"));
+		checkSameAsToString(commands, 30);
+	}
+
+	/**
+	 * A RuntimeException of the channel does not stop the writer: drain() and close()
+	 * rethrow it instead of waiting forever
+	 */
+	public void testChannelFailure() throws IOException {
+		final RuntimeException failure = new IllegalStateException("channel failure");
+		CommandPrinter printer = new CommandPrinter(new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer src) {
+				throw failure;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		}, true, 30);
+		printer.receive(new Parser.Idle(1000));
+		try {
+			printer.drain();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertSame(failure, e);
+		}
+		try {
+			printer.close();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertSame(failure, e);
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package pabx.read;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import pabx.read.Parser.Attempt;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Connect;
+import pabx.read.Parser.Dial;
+import pabx.read.Parser.Idle;
+
+/**
+ * Append only store of the commands, off the heap and by columns
+ *
+ * Each column is a list of direct buffers of 'segmentRecords' values, the i-th command is
+ * at the same index in every column:
+ * type         'A', 'C', 'I' or 'D' (byte)
+ * source       (short)
+ * destination  (short, 0 for 'I' and 'D')
+ * nextSource   index of the next command with the same source, -1 for the last one (long)
+ * link         for 'A' and 'C' index of the next command with the same destination,
+ *              for 'D' position of the digits in the digit heap (long)
+ *
+ * The commands of an extension are chained through nextSource and link, starting at
+ * the first command of the extension, so a scan of an extension only reads its own
+ * commands. The digits of the Dial commands are stored in the digit heap, an int length
+ * followed by the ASCII digits.
+ */
+class CommandStore implements Input<Command> {
+	static final int EXTENSIONS = DialAccumulator.EXTENSIONS;
+	static int defaultSegmentRecords = 1 << 20;
+
+	/**
+	 * Column of fixed size values, 'width' is the size of a value in bytes
+	 */
+	static class Column {
+		final int width;
+		final int shift;
+		final int mask;
+		final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+
+		Column(int width, int segmentRecords) {
+			this.width = width;
+			shift = Integer.numberOfTrailingZeros(segmentRecords);
+			mask = segmentRecords - 1;
+		}
+
+		/**
+		 * Make room for the i-th value, values are added in order
+		 */
+		void ensure(long i) {
+			if ((i >>> shift) == segments.size()) {
+				segments.add(ByteBuffer.allocateDirect((mask + 1) * width));
+			}
+		}
+
+		private ByteBuffer segment(long i) {
+			return segments.get((int) (i >>> shift));
+		}
+
+		private int offset(long i) {
+			return (int) (i & mask) * width;
+		}
+
+		byte getByte(long i) {
+			return segment(i).get(offset(i));
+		}
+
+		short getShort(long i) {
+			return segment(i).getShort(offset(i));
+		}
+
+		long getLong(long i) {
+			return segment(i).getLong(offset(i));
+		}
+
+		void putByte(long i, byte v) {
+			segment(i).put(offset(i), v);
+		}
+
+		void putShort(long i, short v) {
+			segment(i).putShort(offset(i), v);
+		}
+
+		void putLong(long i, long v) {
+			segment(i).putLong(offset(i), v);
+		}
+	}
+
+	private final int segmentSize;
+	private final Column type;
+	private final Column source;
+	private final Column destination;
+	private final Column nextSource;
+	private final Column link;
+	private final List<ByteBuffer> digits = new ArrayList<ByteBuffer>();
+	private long size;
+
+	/**
+	 * First command, last command and number of commands of each extension
+	 */
+	private final long[] head = new long[EXTENSIONS];
+	private final long[] tail = new long[EXTENSIONS];
+	private final long[] counts = new long[EXTENSIONS];
+
+	CommandStore() {
+		this(defaultSegmentRecords);
+	}
+
+	CommandStore(int segmentRecords) {
+		if (segmentRecords < 256 || Integer.bitCount(segmentRecords) != 1) {
+			throw new IllegalArgumentException("Invalid segment size " + segmentRecords);
+		}
+		segmentSize = segmentRecords * 8;
+		type = new Column(1, segmentRecords);
+		source = new Column(2, segmentRecords);
+		destination = new Column(2, segmentRecords);
+		nextSource = new Column(8, segmentRecords);
+		link = new Column(8, segmentRecords);
+		Arrays.fill(head, -1);
+		Arrays.fill(tail, -1);
+	}
+
+	@Override
+	public void receive(Command c) {
+		if (c instanceof Attempt) {
+			Attempt a = (Attempt) c;
+			append('A', a.source, a.destination, null);
+		} else if (c instanceof Connect) {
+			Connect cn = (Connect) c;
+			append('C', cn.source, cn.destination, null);
+		} else if (c instanceof Idle) {
+			append('I', ((Idle) c).source, 0, null);
+		} else if (c instanceof Dial) {
+			Dial d = (Dial) c;
+			append('D', d.source, 0, d.getDigits() == null ? "" : d.getDigits());
+		} else {
+			throw new IllegalArgumentException("Unknown command " + c);
+		}
+	}
+
+	private void append(char t, int s, int d, String dialed) {
+		long i = size;
+		type.ensure(i);
+		source.ensure(i);
+		destination.ensure(i);
+		nextSource.ensure(i);
+		link.ensure(i);
+		type.putByte(i, (byte) t);
+		source.putShort(i, (short) s);
+		destination.putShort(i, (short) d);
+		nextSource.putLong(i, -1);
+		link.putLong(i, dialed != null ? storeDigits(dialed) : -1);
+		chain(s, i);
+		if ((t == 'A' || t == 'C') && d != s) {
+			chain(d, i);
+		}
+		size++;
+	}
+
+	/**
+	 * Add the i-th command at the end of the chain of 'extension'
+	 */
+	private void chain(int extension, long i) {
+		long last = tail[extension];
+		if (last < 0) {
+			head[extension] = i;
+		} else if (source.getShort(last) == extension) {
+			nextSource.putLong(last, i);
+		} else {
+			link.putLong(last, i);
+		}
+		tail[extension] = i;
+		counts[extension]++;
+	}
+
+	/**
+	 * Append the digits to the heap, returns their position: the index of the heap buffer
+	 * in the high int, the offset in the buffer in the low int
+	 */
+	private long storeDigits(String s) {
+		int length = 4 + s.length();
+		ByteBuffer heap = digits.isEmpty() ? null : digits.get(digits.size() - 1);
+		if (heap == null || heap.remaining() < length) {
+			// a number longer than a segment gets a buffer of its own
+			heap = ByteBuffer.allocateDirect(Math.max(segmentSize, length));
+			digits.add(heap);
+		}
+		long position = (long) (digits.size() - 1) << 32 | heap.position();
+		heap.putInt(s.length());
+		for (int k = 0; k < s.length(); k++) {
+			heap.put((byte) s.charAt(k));
+		}
+		return position;
+	}
+
+	long size() {
+		return size;
+	}
+
+	char type(long i) {
+		return (char) type.getByte(i);
+	}
+
+	int source(long i) {
+		return source.getShort(i);
+	}
+
+	int destination(long i) {
+		return destination.getShort(i);
+	}
+
+	/**
+	 * Digits of the i-th command, which must be a Dial
+	 */
+	String digits(long i) {
+		long position = link.getLong(i);
+		ByteBuffer heap = digits.get((int) (position >>> 32));
+		int offset = (int) position;
+		char[] chars = new char[heap.getInt(offset)];
+		for (int k = 0; k < chars.length; k++) {
+			chars[k] = (char) heap.get(offset + 4 + k);
+		}
+		return new String(chars);
+	}
+
+	Command command(long i) {
+		switch (type(i)) {
+		case 'A':
+			return new Attempt(source(i), destination(i));
+		case 'C':
+			return new Connect(source(i), destination(i));
+		case 'I':
+			return new Idle(source(i));
+		default:
+			return new Dial(source(i), digits(i));
+		}
+	}
+
+	/**
+	 * Number of commands where 'extension' is the source or the destination
+	 */
+	long count(int extension) {
+		return counts[extension];
+	}
+
+	/**
+	 * Indexes of the commands where 'extension' is the source or the destination, in order
+	 */
+	void scanIndexes(int extension, LongConsumer visitor) {
+		long i = head[extension];
+		while (i >= 0) {
+			visitor.accept(i);
+			i = source.getShort(i) == extension ? nextSource.getLong(i) : link.getLong(i);
+		}
+	}
+
+	/**
+	 * Commands where 'extension' is the source or the destination, in order
+	 */
+	void scan(int extension, final Input<Command> output) {
+		scanIndexes(extension, new LongConsumer() {
+			@Override
+			public void accept(long i) {
+				output.receive(command(i));
+			}
+		});
+	}
+}
@@ -0,0 +1,85 @@
+package pabx.read;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.SourceDestination;
+import pabx.read.Parser.SourceOnly;
+
+public class CommandStoreTest extends TestCase {
+
+	private static boolean concerns(Command c, int extension) {
+		return ((SourceOnly) c).source == extension
+				|| (c instanceof SourceDestination && ((SourceDestination) c).destination == extension);
+	}
+
+	public void testStore() {
+		final List<Command> commands = new ArrayList<Command>();
+		final CommandStore store = new CommandStore(256);
+		FusedScanner scanner = new FusedScanner(new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				commands.add(c);
+				store.receive(c);
+			}
+		});
+		char[] chars = GenerateEventStream.generate(20, 20000, new int[] { 1, 1, 1, 2 }).toCharArray();
+		scanner.receive(chars, 0, chars.length);
+		// a call to itself is listed once
+		Command self = new Parser.Attempt(1234, 1234);
+		commands.add(self);
+		store.receive(self);
+
+		Assert.assertEquals(commands.size(), store.size());
+		for (int i = 0; i < commands.size(); i++) {
+			Assert.assertEquals(commands.get(i).toString(), store.command(i).toString());
+		}
+
+		// each extension once
+		Set<Integer> extensions = new TreeSet<Integer>();
+		for (Command c : commands) {
+			extensions.add(((SourceOnly) c).source);
+		}
+		extensions.add(9999);
+		for (int extension : extensions) {
+			FusedScannerTest.Commands expected = new FusedScannerTest.Commands();
+			int count = 0;
+			for (Command c : commands) {
+				if (concerns(c, extension)) {
+					expected.receive(c);
+					count++;
+				}
+			}
+			FusedScannerTest.Commands scanned = new FusedScannerTest.Commands();
+			store.scan(extension, scanned);
+			Assert.assertEquals(expected.output.toString(), scanned.output.toString());
+			Assert.assertEquals(count, store.count(extension));
+		}
+	}
+
+	/**
+	 * Dial numbers of any length, even longer than a digit segment
+	 */
+	public void testLongDigits() {
+		CommandStore store = new CommandStore(256);
+		StringBuilder digits = new StringBuilder();
+		String[] dialed = new String[4];
+		for (int i = 0; i < dialed.length; i++) {
+			while (digits.length() < new int[] { 127, 200, 255, 5000 }[i]) {
+				digits.append((char) ('0' + digits.length() % 10));
+			}
+			dialed[i] = digits.toString();
+			store.receive(new Parser.Dial(42, dialed[i]));
+			store.receive(new Parser.Idle(42));
+		}
+		for (int i = 0; i < dialed.length; i++) {
+			Assert.assertEquals(dialed[i], store.digits(2 * i));
+		}
+	}
+}
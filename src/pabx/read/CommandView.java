@@ -0,0 +1,76 @@
+package pabx.read;
+
+import java.util.Arrays;
+
+import pabx.read.Parser.Attempt;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Connect;
+import pabx.read.Parser.Dial;
+import pabx.read.Parser.Idle;
+
+/**
+ * Mutable, reusable view of a parsed command (see FusedScanner.flyweight)
+ *
+ * The scanner fills the same view for every command, so it is only valid during the
+ * call to receive(): a consumer that keeps the command must take a copy(). The fields
+ * are primitives and the digits of a Dial are kept in a char buffer that grows when
+ * needed, so once warmed up nothing is allocated per command.
+ */
+class CommandView {
+	/**
+	 * Types, the letter of the command in the stream
+	 */
+	static final char ATTEMPT = 'A';
+	static final char CONNECT = 'C';
+	static final char IDLE = 'I';
+	static final char DIAL = 'D';
+
+	char type;
+	int source;
+	/**
+	 * Attempt and Connect only
+	 */
+	int destination;
+	/**
+	 * Dial only, the 'digitsLength' first chars of 'digits'
+	 */
+	char[] digits = new char[16];
+	int digitsLength;
+
+	/**
+	 * Digits buffer with room for at least 'capacity' chars
+	 */
+	char[] digits(int capacity) {
+		if (digits.length < capacity) {
+			digits = Arrays.copyOf(digits, Math.max(capacity, digits.length * 2));
+		}
+		return digits;
+	}
+
+	String getDigits() {
+		return new String(digits, 0, digitsLength);
+	}
+
+	/**
+	 * Command that stays valid once the view is reused
+	 */
+	Command copy() {
+		switch (type) {
+		case ATTEMPT:
+			return new Attempt(source, destination);
+		case CONNECT:
+			return new Connect(source, destination);
+		case IDLE:
+			return new Idle(source);
+		case DIAL:
+			return new Dial(source, getDigits());
+		default:
+			throw new IllegalStateException("No command");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return copy().toString();
+	}
+}
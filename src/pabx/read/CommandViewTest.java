@@ -0,0 +1,112 @@
+package pabx.read;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class CommandViewTest extends TestCase {
+
+	static class Views implements Input<CommandView> {
+		StringBuilder output = new StringBuilder();
+
+		@Override
+		public void receive(CommandView v) {
+			output.append(v.copy().toString()).append(' ');
+		}
+	}
+
+	private void checkSameCommands(String input) {
+		FusedScannerTest.Commands expected = new FusedScannerTest.Commands();
+		FusedScanner scanner = new FusedScanner(expected);
+		scanner.errors = ParseErrorTest.ignore;
+		char[] chars = input.toCharArray();
+		scanner.receive(chars, 0, chars.length);
+
+		Views views = new Views();
+		FusedScanner flyweight = FusedScanner.flyweight(views);
+		flyweight.errors = ParseErrorTest.ignore;
+		flyweight.receive(ByteBuffer.wrap(input.getBytes(StandardCharsets.ISO_8859_1)));
+		Assert.assertEquals(expected.output.toString(), views.output.toString());
+	}
+
+	public void testSameCommands() {
+		Random random = new Random(4);
+		checkSameCommands(FusedScannerTest.randomInput(random, 2000, 0));
+		for (int i = 0; i < 10; i++) {
+			checkSameCommands(FusedScannerTest.randomInput(random, 100, 0.1));
+		}
+		// longer than the initial digits buffer of the view
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 40; i++) {
+			sb.append("<CR>D1234").append(i % 10).append("<LF>");
+		}
+		sb.append("<CR>I1234<LF><CR>D1234#<LF><CR>D0001#<LF><CR>C00019999<LF>");
+		checkSameCommands(sb.toString());
+	}
+
+	public void testCopy() {
+		CommandView view = new CommandView();
+		view.type = CommandView.DIAL;
+		view.source = 12;
+		view.digitsLength = 3;
+		System.arraycopy("357".toCharArray(), 0, view.digits, 0, 3);
+		String dial = view.toString();
+		Parser.Command copy = view.copy();
+		view.type = CommandView.ATTEMPT;
+		view.destination = 34;
+		Assert.assertEquals("D  12357", dial);
+		Assert.assertEquals(dial, copy.toString());
+		Assert.assertEquals("A  12  34", view.toString());
+	}
+
+	/**
+	 * Once the buffers have grown, parsing a stream that has already been seen does
+	 * not allocate
+	 */
+	public void testNoAllocation() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+			return;
+		}
+		// every extension dials a complete number so the stream can be parsed again and again
+		StringBuilder sb = new StringBuilder();
+		for (int source = 1000; source < 1100; source++) {
+			sb.append("<CR>A").append(source).append(source + 1).append("<LF>");
+			sb.append("<CR>C").append(source).append(source + 1).append("<LF>");
+			for (int i = 0; i < 1 + source % 20; i++) {
+				sb.append("<CR>D").append(source).append(i % 10).append("<LF>");
+			}
+			sb.append("<CR>D").append(source).append("#<LF>");
+			sb.append("<CR>I").append(source).append("<LF>");
+		}
+		final int[] commands = new int[1];
+		FusedScanner scanner = FusedScanner.flyweight(new Input<CommandView>() {
+			@Override
+			public void receive(CommandView v) {
+				commands[0] += v.type + v.source + v.digitsLength;
+			}
+		});
+		ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.US_ASCII));
+		for (int i = 0; i < 2000; i++) {
+			bytes.clear();
+			scanner.receive(bytes);
+		}
+		long before = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < 100; i++) {
+			bytes.clear();
+			scanner.receive(bytes);
+		}
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+		Assert.assertTrue(commands[0] != 0);
+		// 40000 commands, a few bytes would only come from the runtime itself
+		Assert.assertTrue("allocated " + allocated + " bytes", allocated < 1000);
+	}
+}
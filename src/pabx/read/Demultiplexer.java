@@ -0,0 +1,215 @@
+package pabx.read;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pabx.read.Parser.Command;
+
+/**
+ * Many independent streams (one per exchange) parsed by a small, fixed pool of threads
+ *
+ * Each stream opened by open() is a slot with its own FusedScanner, whose state is a
+ * few ints, and a SparseDialAccumulator, so a stream that is not being parsed only
+ * takes a couple hundred bytes and there can be thousands of them. The buffers given
+ * to a stream are queued in the slot, the slot is then queued for the workers: a
+ * worker parses up to 'quantum' buffers of the stream then goes to the next stream,
+ * so the engine switches between the streams at buffer boundaries.
+ *
+ * A stream is parsed by one worker at a time, in the order of its buffers, and its
+ * output is called on the worker threads. Once parsed, the buffers are given to
+ * 'parsed' (if not null) so they can be reused. A stream needs no closing, it is
+ * dropped with its last reference.
+ *
+ * If the output of a stream throws (an Error too), the next buffers of that stream are
+ * skipped and close() throws the first exception.
+ */
+class Demultiplexer implements Closeable {
+	static int quantum = 4;
+
+	private static final Runnable STOP = new Runnable() {
+		@Override
+		public void run() {
+		}
+	};
+
+	private static final AtomicIntegerFieldUpdater<Stream> SCHEDULED = AtomicIntegerFieldUpdater
+			.newUpdater(Stream.class, "scheduled");
+
+	class Stream implements Runnable {
+		final FusedScanner scanner;
+		private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+		/**
+		 * 1 while the stream is in the run queue or being parsed
+		 */
+		volatile int scheduled;
+		private Throwable failure;
+
+		Stream(Input<Command> output) {
+			scanner = new FusedScanner(output, new SparseDialAccumulator());
+		}
+
+		/**
+		 * Queue 'bytes' (from its position to its limit) to be parsed, it must not be
+		 * changed until it is given back to 'parsed'
+		 */
+		void receive(ByteBuffer bytes) {
+			inFlight.incrementAndGet();
+			buffers.add(bytes);
+			schedule();
+		}
+
+		private void schedule() {
+			if (SCHEDULED.compareAndSet(this, 0, 1)) {
+				runQueue.add(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int i = 0; i < quantum; i++) {
+					ByteBuffer bytes = buffers.poll();
+					if (bytes == null) {
+						break;
+					}
+					try {
+						if (failure == null) {
+							scanner.receive(bytes);
+						}
+					} catch (Throwable e) {
+						// an Error too, the buffers must still be counted
+						failure = e;
+						fail(e);
+					} finally {
+						release(bytes);
+					}
+				}
+				if (buffers.isEmpty()) {
+					scanner.dialedNumbers.trim();
+				}
+			} finally {
+				scheduled = 0;
+				// a buffer may have come after the last poll()
+				if (!buffers.isEmpty()) {
+					schedule();
+				}
+			}
+		}
+
+		private void release(ByteBuffer bytes) {
+			try {
+				if (parsed != null) {
+					parsed.receive(bytes);
+				}
+			} finally {
+				if (inFlight.decrementAndGet() == 0) {
+					synchronized (Demultiplexer.this) {
+						Demultiplexer.this.notifyAll();
+					}
+				}
+			}
+		}
+	}
+
+	private final LinkedBlockingQueue<Runnable> runQueue = new LinkedBlockingQueue<Runnable>();
+	private final Thread[] workers;
+	private final Input<ByteBuffer> parsed;
+	/**
+	 * Buffers received and not parsed yet
+	 */
+	private final AtomicLong inFlight = new AtomicLong();
+	private volatile Throwable failure;
+
+	Demultiplexer(int workers) {
+		this(workers, null);
+	}
+
+	Demultiplexer(int workers, Input<ByteBuffer> parsed) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("Invalid number of workers " + workers);
+		}
+		this.parsed = parsed;
+		this.workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			this.workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "pabx-demux-" + i);
+			this.workers[i].start();
+		}
+	}
+
+	/**
+	 * New stream, its commands go to 'output'
+	 */
+	Stream open(Input<Command> output) {
+		return new Stream(output);
+	}
+
+	private void work() {
+		try {
+			Runnable stream;
+			while ((stream = runQueue.take()) != STOP) {
+				try {
+					stream.run();
+				} catch (Throwable e) {
+					// thrown by 'parsed', the worker goes on with the other streams
+					fail(e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private synchronized void fail(Throwable e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Wait for all the buffers received so far to be parsed
+	 */
+	synchronized void drain() {
+		try {
+			while (inFlight.get() > 0) {
+				wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Parse what is left and stop the workers
+	 */
+	@Override
+	public void close() {
+		drain();
+		for (int i = 0; i < workers.length; i++) {
+			runQueue.add(STOP);
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Throwable failure = this.failure;
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new IllegalStateException(failure);
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package pabx.read;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.read.Parser.Command;
+
+public class DemultiplexerTest extends TestCase {
+
+	public void testSparseDialAccumulator() {
+		Random random = new Random(10);
+		DialAccumulator flat = new FlatDialAccumulator();
+		SparseDialAccumulator sparse = new SparseDialAccumulator();
+		char[] into = new char[64];
+		for (int i = 0; i < 100000; i++) {
+			// few extensions so they collide in the table
+			int source = random.nextInt(4) == 0 ? random.nextInt(DialAccumulator.EXTENSIONS) : random.nextInt(40);
+			switch (random.nextInt(5)) {
+			case 0:
+				Assert.assertEquals(flat.take(source), sparse.take(source));
+				break;
+			case 1:
+				int length = flat.take(source, into);
+				String expected = new String(into, 0, length);
+				Assert.assertEquals(length, sparse.take(source, into));
+				Assert.assertEquals(expected, new String(into, 0, length));
+				break;
+			default:
+				if (flat.length(source) < into.length) {
+					int digit = random.nextInt(10);
+					flat.append(source, digit);
+					sparse.append(source, digit);
+				}
+			}
+			Assert.assertEquals(flat.size(), sparse.size());
+			Assert.assertEquals(flat.contains(source), sparse.contains(source));
+			Assert.assertEquals(flat.peek(source), sparse.peek(source));
+		}
+		for (int source = 0; source < DialAccumulator.EXTENSIONS; source++) {
+			Assert.assertEquals(flat.peek(source), sparse.peek(source));
+			flat.take(source);
+			sparse.take(source);
+		}
+		Assert.assertEquals(0, sparse.size());
+		sparse.trim();
+		Assert.assertEquals("", sparse.peek(12));
+	}
+
+	public void testStreams() {
+		Random random = new Random(11);
+		int n = 200;
+		String[] inputs = new String[n];
+		FusedScannerTest.Commands[] outputs = new FusedScannerTest.Commands[n];
+		Demultiplexer.Stream[] streams = new Demultiplexer.Stream[n];
+		int[] offsets = new int[n];
+		int quantum = Demultiplexer.quantum;
+		Demultiplexer.quantum = 2;
+		Demultiplexer demultiplexer = new Demultiplexer(3);
+		try {
+			for (int i = 0; i < n; i++) {
+				inputs[i] = FusedScannerTest.randomInput(random, 100, i % 10 == 0 ? 0.1 : 0);
+				outputs[i] = new FusedScannerTest.Commands();
+				streams[i] = demultiplexer.open(outputs[i]);
+				streams[i].scanner.errors = ParseErrorTest.ignore;
+			}
+			// the streams are fed in turn, with chunks of any size
+			boolean more = true;
+			while (more) {
+				more = false;
+				for (int i = 0; i < n; i++) {
+					byte[] bytes = inputs[i].getBytes(StandardCharsets.ISO_8859_1);
+					if (offsets[i] < bytes.length) {
+						int length = Math.min(bytes.length - offsets[i], 1 + random.nextInt(40));
+						streams[i].receive(ByteBuffer.wrap(bytes, offsets[i], length));
+						offsets[i] += length;
+						more = true;
+					}
+				}
+			}
+		} finally {
+			demultiplexer.close();
+			Demultiplexer.quantum = quantum;
+		}
+		for (int i = 0; i < n; i++) {
+			FusedScannerTest.Commands expected = new FusedScannerTest.Commands();
+			FusedScanner scanner = new FusedScanner(expected);
+			scanner.errors = ParseErrorTest.ignore;
+			char[] chars = inputs[i].toCharArray();
+			scanner.receive(chars, 0, chars.length);
+			Assert.assertEquals(expected.output.toString(), outputs[i].output.toString());
+			for (int source = 1000; source < 1004; source++) {
+				Assert.assertEquals(scanner.dialedNumbers.peek(source), streams[i].scanner.dialedNumbers.peek(source));
+			}
+		}
+	}
+
+	public void testFailure() {
+		Demultiplexer demultiplexer = new Demultiplexer(2);
+		FusedScannerTest.Commands good = new FusedScannerTest.Commands();
+		Demultiplexer.Stream ok = demultiplexer.open(good);
+		Demultiplexer.Stream broken = demultiplexer.open(new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				throw new IllegalStateException("broken output");
+			}
+		});
+		byte[] frame = "<CR>I1234<LF>".getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0; i < 10; i++) {
+			broken.receive(ByteBuffer.wrap(frame));
+			ok.receive(ByteBuffer.wrap(frame));
+		}
+		try {
+			demultiplexer.close();
+			fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("broken output", e.getMessage());
+		}
+		Assert.assertEquals(10 * "I1234 ".length(), good.output.length());
+	}
+
+	/**
+	 * An Error does not stop the stream from being drained
+	 */
+	public void testError() {
+		Demultiplexer demultiplexer = new Demultiplexer(1);
+		FusedScannerTest.Commands good = new FusedScannerTest.Commands();
+		Demultiplexer.Stream ok = demultiplexer.open(good);
+		Demultiplexer.Stream broken = demultiplexer.open(new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				throw new AssertionError("broken output");
+			}
+		});
+		byte[] frame = "<CR>I1234<LF>".getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0; i < 10; i++) {
+			broken.receive(ByteBuffer.wrap(frame));
+		}
+		demultiplexer.drain();
+		for (int i = 0; i < 10; i++) {
+			broken.receive(ByteBuffer.wrap(frame));
+			ok.receive(ByteBuffer.wrap(frame));
+		}
+		try {
+			demultiplexer.close();
+			fail();
+		} catch (AssertionError e) {
+			Assert.assertEquals("broken output", e.getMessage());
+		}
+		Assert.assertEquals(10 * "I1234 ".length(), good.output.length());
+	}
+
+	/**
+	 * A stream that is not being parsed takes a couple hundred bytes
+	 */
+	public void testIdleStreamSize() {
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+			return;
+		}
+		Demultiplexer demultiplexer = new Demultiplexer(1);
+		Input<Command> output = new FusedScannerTest.Commands();
+		int n = 10000;
+		Demultiplexer.Stream[] streams = new Demultiplexer.Stream[n];
+		streams[0] = demultiplexer.open(output);
+		long before = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 1; i < n; i++) {
+			streams[i] = demultiplexer.open(output);
+		}
+		long perStream = (threads.getCurrentThreadAllocatedBytes() - before) / (n - 1);
+		demultiplexer.close();
+		Assert.assertTrue(perStream + " bytes per stream", perStream < 400);
+	}
+}
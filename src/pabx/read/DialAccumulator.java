@@ -0,0 +1,57 @@
+package pabx.read;
+
+/**
+ * Digits dialed by each extension until the '#' is received
+ *
+ * FlatDialAccumulator keeps them in arrays indexed by the extension, for an engine
+ * that parses a whole stream; SparseDialAccumulator only keeps the extensions with
+ * digits, for the engines that keep many of them (Demultiplexer).
+ */
+abstract class DialAccumulator {
+	static final int EXTENSIONS = 10000;
+
+	abstract void append(int source, int digit);
+
+	void append(int source, String digits) {
+		for (int i = 0; i < digits.length(); i++) {
+			append(source, digits.charAt(i) - '0');
+		}
+	}
+
+	abstract boolean contains(int source);
+
+	abstract int length(int source);
+
+	/**
+	 * Digits dialed by 'source', "" if there are none
+	 */
+	abstract String peek(int source);
+
+	/**
+	 * Remove and return the digits dialed by 'source', "" if there are none
+	 */
+	abstract String take(int source);
+
+	/**
+	 * Remove the digits dialed by 'source' and copy them at the start of 'into', which
+	 * must have room for length(source) chars, returns the number of digits
+	 */
+	abstract int take(int source, char[] into);
+
+	/**
+	 * Forget all the digits
+	 */
+	abstract void clear();
+
+	/**
+	 * Number of extensions with digits waiting for a '#'
+	 */
+	abstract int size();
+
+	/**
+	 * Release the memory that is not needed while no number is being dialed, nothing
+	 * by default
+	 */
+	void trim() {
+	}
+}
@@ -0,0 +1,98 @@
+package pabx.read;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Default error channel of the engines: print the errors, at most 'maxPerSecond' of
+ * them per second, the others are only counted and their number is printed once the
+ * second is over, so a noisy line does not turn into a flood of console writes.
+ *
+ * Shared by all the engines (see 'shared'), it is thread safe. The engines report through
+ * report(), which only makes the ParseError when it is going to be printed.
+ */
+class ErrorReporter implements Input<ParseError> {
+	static int defaultMaxPerSecond = 10;
+	static final LongSupplier nanoClock = new LongSupplier() {
+		@Override
+		public long getAsLong() {
+			return System.nanoTime();
+		}
+	};
+
+	static final ErrorReporter shared = new ErrorReporter(System.err, defaultMaxPerSecond);
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final PrintStream out;
+	private final int maxPerSecond;
+	private final LongSupplier clock;
+	private long windowStart;
+	private int reported;
+	private long suppressed;
+
+	ErrorReporter(PrintStream out, int maxPerSecond) {
+		this(out, maxPerSecond, nanoClock);
+	}
+
+	ErrorReporter(PrintStream out, int maxPerSecond, LongSupplier clock) {
+		this.out = out;
+		this.maxPerSecond = maxPerSecond;
+		this.clock = clock;
+		windowStart = clock.getAsLong();
+	}
+
+	/**
+	 * Give the error to 'errors', without allocating it when 'errors' is an ErrorReporter
+	 * which is over its budget
+	 */
+	static void report(Input<ParseError> errors, ParseError.Kind kind, long offset, int value) {
+		if (errors instanceof ErrorReporter) {
+			((ErrorReporter) errors).receive(kind, offset, value);
+		} else {
+			errors.receive(new ParseError(kind, offset, value));
+		}
+	}
+
+	@Override
+	public synchronized void receive(ParseError e) {
+		if (admit()) {
+			out.println(e);
+		}
+	}
+
+	synchronized void receive(ParseError.Kind kind, long offset, int value) {
+		if (admit()) {
+			out.println(new ParseError(kind, offset, value));
+		}
+	}
+
+	/**
+	 * true when the error can be printed, else it is counted
+	 */
+	private boolean admit() {
+		long now = clock.getAsLong();
+		if (now - windowStart >= SECOND) {
+			flush();
+			windowStart = now;
+			reported = 0;
+		}
+		if (reported < maxPerSecond) {
+			reported++;
+			return true;
+		}
+		suppressed++;
+		return false;
+	}
+
+	/**
+	 * Print the number of errors which have not been printed
+	 */
+	synchronized void flush() {
+		if (suppressed > 0) {
+			out.println(suppressed + " more errors");
+			suppressed = 0;
+		}
+	}
+}
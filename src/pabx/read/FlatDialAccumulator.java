@@ -0,0 +1,85 @@
+package pabx.read;
+
+import java.util.Arrays;
+
+/**
+ * DialAccumulator for a single engine (Parser, CodeParser, FusedScanner)
+ *
+ * Extensions have 4 digits, so the digits are kept in a flat array indexed
+ * by the extension. Each extension has a char buffer that is reused from one
+ * dialed number to the next, nothing is boxed and the only String created is
+ * the one of the complete number.
+ */
+class FlatDialAccumulator extends DialAccumulator {
+	private final char[][] digits = new char[EXTENSIONS][];
+	private final int[] lengths = new int[EXTENSIONS];
+	private int size;
+
+	@Override
+	void append(int source, int digit) {
+		char[] buffer = digits[source];
+		int length = lengths[source];
+		if (buffer == null) {
+			buffer = new char[8];
+			digits[source] = buffer;
+		} else if (length == buffer.length) {
+			buffer = Arrays.copyOf(buffer, length * 2);
+			digits[source] = buffer;
+		}
+		buffer[length] = (char) ('0' + digit);
+		if (length == 0) {
+			size++;
+		}
+		lengths[source] = length + 1;
+	}
+
+	@Override
+	boolean contains(int source) {
+		return lengths[source] > 0;
+	}
+
+	@Override
+	int length(int source) {
+		return lengths[source];
+	}
+
+	@Override
+	String peek(int source) {
+		int length = lengths[source];
+		return length > 0 ? new String(digits[source], 0, length) : "";
+	}
+
+	@Override
+	String take(int source) {
+		int length = lengths[source];
+		String ret = "";
+		if (length > 0) {
+			ret = new String(digits[source], 0, length);
+			lengths[source] = 0;
+			size--;
+		}
+		return ret;
+	}
+
+	@Override
+	int take(int source, char[] into) {
+		int length = lengths[source];
+		if (length > 0) {
+			System.arraycopy(digits[source], 0, into, 0, length);
+			lengths[source] = 0;
+			size--;
+		}
+		return length;
+	}
+
+	@Override
+	void clear() {
+		Arrays.fill(lengths, 0);
+		size = 0;
+	}
+
+	@Override
+	int size() {
+		return size;
+	}
+}
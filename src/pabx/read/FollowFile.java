@@ -0,0 +1,290 @@
+package pabx.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follow a growing capture file, like "tail -F"
+ *
+ * The bytes appended to the file are given to 'input', whose state (and the digits in
+ * 'dialedNumbers') is kept from one append to the next. Only complete frames are given
+ * to 'input': the bytes after the last "<LF>" stay in the buffer until the rest of the
+ * frame has been written, so between two reads the parser is always between two frames.
+ *
+ * At the end of the file, the file is checked for rotation: when 'file' is a new file
+ * (another file key) or is shorter than what has been read (truncated), it is read
+ * again from the start; the end of a frame left in the buffer is dropped.
+ *
+ * The position, the key of the file and the digits dialed without '#' are saved in
+ * 'checkpoint' every 'checkpointMillis' and by close(). The 'flush' hook is called
+ * first, so the checkpoint never runs ahead of the output of 'input'. The checkpoint is written in a
+ * temporary file that is then renamed, so it is either the old or the new one after a
+ * crash. A new FollowFile with the same checkpoint restores the digits and goes on
+ * from the saved position, or from the start without the digits when the file has
+ * been rotated or truncated since.
+ */
+class FollowFile implements Runnable, Closeable {
+	static int defaultBufferSize = 64 * 1024;
+	static long defaultPollMillis = 200;
+	static long defaultCheckpointMillis = 1000;
+
+	private static final int MAGIC = 0x50414246;
+	private static final int VERSION = 1;
+	private static final byte[] LF = { '<', 'L', 'F', '>' };
+
+	private final Path file;
+	private final ChunkInput input;
+	private final DialAccumulator dialedNumbers;
+	private final Path checkpoint;
+	private final long pollMillis;
+	private final long checkpointMillis;
+	private final ByteBuffer buffer;
+
+	private FileChannel channel;
+	private String fileKey;
+	/**
+	 * Offset in the current file of the first byte not given to 'input'
+	 */
+	private long offset;
+	private long checkpointed = -1;
+	private long lastCheckpoint;
+	/**
+	 * Called when the end of the file is reached, e.g. to flush the output
+	 */
+	private Runnable idle;
+	/**
+	 * Called before a checkpoint, returns once what has been given to 'input' is output
+	 */
+	private Runnable flush;
+
+	private volatile boolean running = true;
+	private Thread thread;
+
+	FollowFile(Path file, ChunkInput input, DialAccumulator dialedNumbers, Path checkpoint) throws IOException {
+		this(file, input, dialedNumbers, checkpoint, defaultBufferSize, defaultPollMillis, defaultCheckpointMillis);
+	}
+
+	FollowFile(Path file, ChunkInput input, DialAccumulator dialedNumbers, Path checkpoint, int bufferSize,
+			long pollMillis, long checkpointMillis) throws IOException {
+		this.file = file;
+		this.input = input;
+		this.dialedNumbers = dialedNumbers;
+		this.checkpoint = checkpoint;
+		this.pollMillis = pollMillis;
+		this.checkpointMillis = checkpointMillis;
+		buffer = ByteBuffer.allocateDirect(bufferSize);
+		lastCheckpoint = System.nanoTime();
+		if (checkpoint != null && Files.exists(checkpoint)) {
+			restore();
+		}
+	}
+
+	void setIdle(Runnable idle) {
+		this.idle = idle;
+	}
+
+	void setFlush(Runnable flush) {
+		this.flush = flush;
+	}
+
+	/**
+	 * Offset in the current file up to which the frames have been parsed
+	 */
+	long offset() {
+		return offset;
+	}
+
+	void start() {
+		thread = new Thread(this, "pabx-follow");
+		thread.start();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				if (!poll()) {
+					if (idle != null) {
+						idle.run();
+					}
+					TimeUnit.MILLISECONDS.sleep(pollMillis);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Read what has been appended since the last call, returns false when there was
+	 * nothing new
+	 */
+	boolean poll() throws IOException {
+		if (channel == null && !open(0)) {
+			return false;
+		}
+		boolean ret = false;
+		while (channel.read(buffer) > 0) {
+			ret = true;
+			frames();
+		}
+		if (!ret && rotated()) {
+			buffer.clear();
+			ret = open(0);
+		}
+		if (checkpoint != null && offset != checkpointed
+				&& System.nanoTime() - lastCheckpoint >= TimeUnit.MILLISECONDS.toNanos(checkpointMillis)) {
+			save();
+		}
+		return ret;
+	}
+
+	/**
+	 * Give the complete frames of the buffer to 'input', keep the rest
+	 */
+	private void frames() {
+		buffer.flip();
+		int end = buffer.limit();
+		while (end >= LF.length && !endsWithLF(end)) {
+			end--;
+		}
+		if (end < LF.length) {
+			// no frame end in a full buffer, it cannot be a frame
+			end = buffer.remaining() == buffer.capacity() ? buffer.limit() : 0;
+		}
+		if (end > 0) {
+			ByteBuffer frames = buffer.duplicate();
+			frames.limit(end);
+			input.receive(frames);
+			buffer.position(end);
+			offset += end;
+		}
+		buffer.compact();
+	}
+
+	private boolean endsWithLF(int end) {
+		for (int i = 0; i < LF.length; i++) {
+			if (buffer.get(end - LF.length + i) != LF[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * true when 'file' is not the file being read anymore, or has been truncated
+	 */
+	private boolean rotated() throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			// renamed, the new file is not there yet
+			return false;
+		}
+		String key = String.valueOf(attributes.fileKey());
+		return !key.equals(fileKey) || attributes.size() < channel.position();
+	}
+
+	/**
+	 * Open 'file' at 'position', false if it does not exist
+	 */
+	private boolean open(long position) throws IOException {
+		FileChannel opened;
+		try {
+			opened = FileChannel.open(file, StandardOpenOption.READ);
+		} catch (NoSuchFileException e) {
+			return false;
+		}
+		if (channel != null) {
+			channel.close();
+		}
+		channel = opened;
+		fileKey = ScannerSnapshot.fileKey(file);
+		channel.position(position);
+		offset = position;
+		return true;
+	}
+
+	private void restore() throws IOException {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(checkpoint))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a checkpoint " + checkpoint);
+			}
+			String key = in.readUTF();
+			long position = in.readLong();
+			if (open(0) && key.equals(fileKey) && position <= channel.size()) {
+				channel.position(position);
+				offset = position;
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					int source = in.readShort();
+					dialedNumbers.append(source, in.readUTF());
+				}
+			}
+			// else the file has been rotated or truncated: it is read from the start and
+			// the digits, dialed in the previous file, are dropped
+			checkpointed = offset;
+		}
+	}
+
+	/**
+	 * Flush the output, then write the checkpoint, atomically
+	 */
+	void save() throws IOException {
+		if (flush != null) {
+			flush.run();
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(fileKey == null ? "" : fileKey);
+		out.writeLong(offset);
+		out.writeInt(dialedNumbers.size());
+		for (int source = 0; source < DialAccumulator.EXTENSIONS; source++) {
+			if (dialedNumbers.contains(source)) {
+				out.writeShort(source);
+				out.writeUTF(dialedNumbers.peek(source));
+			}
+		}
+		out.flush();
+		ScannerSnapshot.replace(checkpoint, bytes.toByteArray());
+		checkpointed = offset;
+		lastCheckpoint = System.nanoTime();
+	}
+
+	/**
+	 * Stop following (the thread ends after its current poll), the checkpoint is saved
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (checkpoint != null) {
+			save();
+		}
+		if (channel != null) {
+			channel.close();
+		}
+	}
+}
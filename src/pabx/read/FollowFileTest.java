@@ -0,0 +1,203 @@
+package pabx.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.read.Parser.Command;
+
+public class FollowFileTest extends TestCase {
+	private Path dir;
+	private Path file;
+	private Path checkpoint;
+
+	@Override
+	protected void setUp() throws IOException {
+		dir = Files.createTempDirectory("pabx-follow");
+		file = dir.resolve("pabx.log");
+		checkpoint = dir.resolve("pabx.checkpoint");
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private void append(String s) throws IOException {
+		Files.write(file, s.getBytes(StandardCharsets.US_ASCII), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private static String parsed(String input) {
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		FusedScanner scanner = new FusedScanner(commands);
+		char[] chars = input.toCharArray();
+		scanner.receive(chars, 0, chars.length);
+		return commands.output.toString();
+	}
+
+	/**
+	 * The file is written in random pieces, cut in the middle of the frames
+	 */
+	private void appendInPieces(FollowFile follow, String input, Random random) throws IOException {
+		int offset = 0;
+		while (offset < input.length()) {
+			int length = Math.min(input.length() - offset, 1 + random.nextInt(60));
+			append(input.substring(offset, offset + length));
+			offset += length;
+			follow.poll();
+		}
+	}
+
+	private FollowFile follow(FusedScanner scanner) throws IOException {
+		return new FollowFile(file, scanner, scanner.dialedNumbers, checkpoint, 32, 10, Long.MAX_VALUE / 2);
+	}
+
+	public void testAppends() throws IOException {
+		Random random = new Random(12);
+		String input = FusedScannerTest.randomInput(random, 500, 0);
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		FusedScanner scanner = new FusedScanner(commands);
+		FollowFile follow = follow(scanner);
+		Assert.assertFalse(follow.poll());
+		appendInPieces(follow, input, random);
+		follow.close();
+		Assert.assertEquals(parsed(input), commands.output.toString());
+		Assert.assertEquals(input.length(), follow.offset());
+	}
+
+	public void testRotation() throws IOException {
+		Random random = new Random(13);
+		String first = FusedScannerTest.randomInput(random, 100, 0);
+		String second = FusedScannerTest.randomInput(random, 100, 0);
+		String third = FusedScannerTest.randomInput(random, 100, 0);
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		FusedScanner scanner = new FusedScanner(commands);
+		FollowFile follow = follow(scanner);
+		appendInPieces(follow, first, random);
+		// renamed, then a new file
+		Files.move(file, dir.resolve("pabx.log.1"));
+		Assert.assertFalse(follow.poll());
+		appendInPieces(follow, second, random);
+		// truncated
+		Files.write(file, new byte[0]);
+		appendInPieces(follow, third, random);
+		follow.close();
+		Assert.assertEquals(parsed(first + second + third), commands.output.toString());
+	}
+
+	public void testResume() throws IOException {
+		Random random = new Random(14);
+		String input = FusedScannerTest.randomInput(random, 1000, 0);
+		int cut = input.length() / 2;
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		FusedScanner scanner = new FusedScanner(commands);
+		FollowFile follow = follow(scanner);
+		appendInPieces(follow, input.substring(0, cut), random);
+		follow.close();
+		Assert.assertTrue(scanner.dialedNumbers.size() > 0);
+
+		// restarted, the digits dialed before the stop are restored
+		FusedScanner resumed = new FusedScanner(commands);
+		follow = follow(resumed);
+		for (int source = 0; source < DialAccumulator.EXTENSIONS; source++) {
+			Assert.assertEquals(scanner.dialedNumbers.peek(source), resumed.dialedNumbers.peek(source));
+		}
+		appendInPieces(follow, input.substring(cut), random);
+		follow.close();
+		Assert.assertEquals(parsed(input), commands.output.toString());
+		Assert.assertFalse(Files.exists(dir.resolve("pabx.checkpoint.tmp")));
+	}
+
+	/**
+	 * The file is read again from the start, the digits dialed in the previous file
+	 * are not restored
+	 */
+	public void testResumeAfterRotation() throws IOException {
+		checkResumeAfterRotation(false);
+	}
+
+	public void testResumeAfterTruncation() throws IOException {
+		checkResumeAfterRotation(true);
+	}
+
+	private void checkResumeAfterRotation(boolean truncate) throws IOException {
+		Random random = new Random(15);
+		String first = FusedScannerTest.randomInput(random, 100, 0);
+		// a truncated file is only seen as such while it is shorter than the checkpoint
+		String second = FusedScannerTest.randomInput(random, truncate ? 20 : 100, 0);
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		FusedScanner scanner = new FusedScanner(commands);
+		FollowFile follow = follow(scanner);
+		appendInPieces(follow, first, random);
+		follow.close();
+		Assert.assertTrue(!truncate || second.length() < first.length());
+		Assert.assertTrue(scanner.dialedNumbers.size() > 0);
+
+		if (truncate) {
+			Files.write(file, new byte[0]);
+		} else {
+			Files.move(file, dir.resolve("pabx.log.1"));
+		}
+		append(second);
+		FusedScanner resumed = new FusedScanner(commands);
+		follow = follow(resumed);
+		Assert.assertEquals(0, resumed.dialedNumbers.size());
+		follow.poll();
+		follow.close();
+		Assert.assertEquals(parsed(first) + parsed(second), commands.output.toString());
+	}
+
+	/**
+	 * The checkpoint is saved once the printer has written the commands of the frames
+	 * before its offset, none are left in the printer buffers
+	 */
+	public void testFlushBeforeCheckpoint() throws IOException {
+		Random random = new Random(16);
+		String input = FusedScannerTest.randomInput(random, 500, 0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final CommandPrinter printer = new CommandPrinter(Channels.newChannel(out), true, 40);
+		FusedScanner scanner = new FusedScanner(printer);
+		FollowFile follow = new FollowFile(file, scanner, scanner.dialedNumbers, checkpoint, 32, 10, 0);
+		follow.setFlush(new Runnable() {
+			@Override
+			public void run() {
+				printer.drain();
+			}
+		});
+		int offset = 0;
+		while (offset < input.length()) {
+			int length = Math.min(input.length() - offset, 1 + random.nextInt(60));
+			append(input.substring(offset, offset + length));
+			offset += length;
+			follow.poll();
+			Assert.assertEquals(printed(input.substring(0, (int) follow.offset())), out.toString("US-ASCII"));
+		}
+		follow.close();
+		printer.close();
+		Assert.assertEquals(printed(input), out.toString("US-ASCII"));
+	}
+
+	private static String printed(String input) {
+		final StringBuilder output = new StringBuilder();
+		FusedScanner scanner = new FusedScanner(new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				output.append(c.toString()).append(System.lineSeparator());
+			}
+		});
+		char[] chars = input.toCharArray();
+		scanner.receive(chars, 0, chars.length);
+		return output.toString();
+	}
+}
@@ -0,0 +1,247 @@
+package pabx.read;
+
+import java.nio.ByteBuffer;
+
+import pabx.read.Parser.Command;
+
+/**
+ * Single pass version of Tokenizer + Parser
+ *
+ * The chars are tokenized with the table of TableTokenizer and the token codes
+ * are parsed straight away by a CodeParser, which has the same semantic as
+ * Parser (including the way malformed input is handled), both state machines
+ * keep their state in 'int' fields so there is no allocation apart from the
+ * commands themselves.
+ *
+ * Errors go to 'errors' (ErrorReporter.shared by default). After an unexpected token the
+ * parser can only restart on a "<CR>", so the scanner skips ahead to the next '<' without
+ * going through the state machines and reports the skipped chars as one SKIPPED error
+ * instead of an error per char or token; the commands are the same as without the skip.
+ *
+ * A scanner made by flyweight() does not allocate the commands: it fills the same
+ * CommandView for each of them, and the digits of a Dial go from the DialAccumulator
+ * straight into the view. Once the buffers have grown, parsing does not allocate.
+ */
+class FusedScanner implements Input<Integer>, ChunkInput {
+	int tokenizerState = TableTokenizer.INITIAL;
+
+	private final CodeParser parser;
+
+	/**
+	 * Digits already dialed by each extension (see Parser.DialDigitsState)
+	 */
+	final DialAccumulator dialedNumbers;
+
+	Input<ParseError> errors = ErrorReporter.shared;
+
+	/**
+	 * Offset of the next char in the stream
+	 */
+	private long position;
+
+	private ParserMetrics.Probe probe;
+
+	FusedScanner(Input<Command> output) {
+		this(output, new FlatDialAccumulator());
+	}
+
+	FusedScanner(Input<Command> output, DialAccumulator dialedNumbers) {
+		this.dialedNumbers = dialedNumbers;
+		parser = new CodeParser(output, dialedNumbers);
+	}
+
+	/**
+	 * Scanner giving the commands to 'views' through a single, reused CommandView
+	 */
+	static FusedScanner flyweight(Input<CommandView> views) {
+		FusedScanner scanner = new FusedScanner(null);
+		scanner.parser.views = views;
+		scanner.parser.view = new CommandView();
+		return scanner;
+	}
+
+	/**
+	 * Count the bytes, tokens, commands and errors in 'metrics', null to stop
+	 */
+	void setMetrics(ParserMetrics metrics) {
+		probe = metrics == null ? null : metrics.probe(dialedNumbers);
+		parser.setProbe(probe);
+	}
+
+	/**
+	 * Publish the metrics counted so far, at the end of a stream given a char at a time
+	 */
+	void flushMetrics() {
+		flushMetrics(0);
+	}
+
+	private void flushMetrics(int bytes) {
+		if (probe != null) {
+			probe.bytes += bytes;
+			probe.flush();
+		}
+	}
+
+	/**
+	 * The next char received is at 'position' in the stream, for a scanner that starts
+	 * in the middle of the stream (the errors have the offsets of the stream)
+	 */
+	void setPosition(long position) {
+		this.position = position;
+	}
+
+	/**
+	 * Offset of the first char skipped after an unexpected token, -1 when not skipping
+	 */
+	long skipStart() {
+		return parser.skipStart;
+	}
+
+	/**
+	 * true when both state machines are in their initial state, i.e. between two frames
+	 */
+	boolean isInitial() {
+		return tokenizerState == TableTokenizer.INITIAL && parser.state == CodeParser.INITIAL;
+	}
+
+	/**
+	 * State of the scanner, to take between two chunks (see ScannerSnapshot), while
+	 * reading the file of key 'fileKey'
+	 */
+	ScannerSnapshot snapshot(String fileKey) {
+		int[] sources = new int[dialedNumbers.size()];
+		String[] digits = new String[sources.length];
+		ScannerSnapshot.capture(dialedNumbers, sources, digits);
+		CodeParser p = parser;
+		String taken = p.allDigits;
+		if (p.views != null && p.state == CodeParser.DIAL && p.index == 5 && p.newDigit < 0) {
+			// a flyweight scanner keeps the digits taken by the '#' in its view
+			taken = p.view.getDigits();
+		}
+		return new ScannerSnapshot(fileKey, position, tokenizerState, p.state, p.index, p.source, p.destination,
+				p.newDigit, taken, p.skipStart >= 0, p.skipStart, sources, digits);
+	}
+
+	/**
+	 * Go back to the state of 'snapshot', the stream must go on from snapshot.position
+	 */
+	void restore(ScannerSnapshot snapshot) {
+		CodeParser p = parser;
+		position = snapshot.position;
+		tokenizerState = snapshot.tokenizerState;
+		p.state = snapshot.parserState;
+		p.index = snapshot.index;
+		p.source = snapshot.source;
+		p.destination = snapshot.destination;
+		p.newDigit = snapshot.newDigit;
+		p.allDigits = snapshot.allDigits;
+		p.skipStart = snapshot.skipping ? snapshot.skipStart : -1;
+		if (p.views != null && p.allDigits != null) {
+			int length = p.allDigits.length();
+			p.allDigits.getChars(0, length, p.view.digits(length), 0);
+			p.view.digitsLength = length;
+			p.allDigits = null;
+		}
+		dialedNumbers.clear();
+		for (int i = 0; i < snapshot.sources.length; i++) {
+			dialedNumbers.append(snapshot.sources[i], snapshot.digits[i]);
+		}
+	}
+
+	@Override
+	public void receive(Integer c) {
+		if (c != null) {
+			parser.errors = errors;
+			next((char) c.intValue());
+			if (probe != null) {
+				probe.bytes++;
+				probe.tick();
+			}
+		}
+	}
+
+	@Override
+	public void receive(char[] chars, int offset, int length) {
+		// 'errors' can be set at any time, the parser reports to the same channel
+		parser.errors = errors;
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			if (parser.skipStart >= 0 && tokenizerState == TableTokenizer.INITIAL) {
+				int j = i;
+				while (j < end && chars[j] != '<') {
+					j++;
+				}
+				position += j - i;
+				i = j;
+				if (i == end) {
+					break;
+				}
+			}
+			next(chars[i]);
+		}
+		flushMetrics(length);
+	}
+
+	@Override
+	public void receive(ByteBuffer bytes) {
+		parser.errors = errors;
+		int end = bytes.limit();
+		if (bytes.hasArray()) {
+			byte[] array = bytes.array();
+			int offset = bytes.arrayOffset();
+			for (int i = bytes.position(); i < end; i++) {
+				if (parser.skipStart >= 0 && tokenizerState == TableTokenizer.INITIAL) {
+					int j = i;
+					while (j < end && array[offset + j] != '<') {
+						j++;
+					}
+					position += j - i;
+					i = j;
+					if (i == end) {
+						break;
+					}
+				}
+				next((char) (array[offset + i] & 0xff));
+			}
+		} else {
+			for (int i = bytes.position(); i < end; i++) {
+				if (parser.skipStart >= 0 && tokenizerState == TableTokenizer.INITIAL) {
+					int j = i;
+					while (j < end && bytes.get(j) != '<') {
+						j++;
+					}
+					position += j - i;
+					i = j;
+					if (i == end) {
+						break;
+					}
+				}
+				next((char) (bytes.get(i) & 0xff));
+			}
+		}
+		flushMetrics(end - bytes.position());
+		bytes.position(end);
+	}
+
+	private void next(char c) {
+		int e = TableTokenizer.entry(tokenizerState, c);
+		tokenizerState = e & TableTokenizer.STATE_MASK;
+		int token = e >>> TableTokenizer.TOKEN_SHIFT;
+		position++;
+		if (parser.skipStart >= 0 && token - 1 != Tokenizer.CODE_CR) {
+			// only a "<CR>" can end the skip, the parser ignores everything else
+			return;
+		}
+		if (token != 0) {
+			if (probe != null) {
+				probe.tokens++;
+			}
+			parser.receive(token - 1, position - Tokenizer.length(token - 1), position - 1);
+		} else if ((e & TableTokenizer.ERROR) != 0) {
+			if (probe != null) {
+				probe.tokenizerError();
+			}
+			ErrorReporter.report(errors, ParseError.Kind.UNEXPECTED_CHARACTER, position - 1, c);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package pabx.read;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.read.Parser.Command;
+
+public class FusedScannerTest extends TestCase {
+
+	static class Commands implements Input<Command> {
+		StringBuilder output = new StringBuilder();
+
+		@Override
+		public void receive(Command c) {
+			output.append(c.toString()).append(' ');
+		}
+	}
+
+	static String layered(String input) {
+		Commands commands = new Commands();
+		Tokenizer t = new Tokenizer(new Parser(commands));
+		for (char c : input.toCharArray()) {
+			t.receive((int) c);
+		}
+		return commands.output.toString();
+	}
+
+	/**
+	 * Random stream of well formed frames with some noise in the middle
+	 */
+	static String randomInput(Random random, int frames, double noise) {
+		String[] noises = { "x", "<", "<C", "<CR>", "<LF>", "#", "7", "A", "D", "<L", ">" };
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < frames; i++) {
+			String source = Integer.toString(1000 + random.nextInt(4));
+			switch (random.nextInt(4)) {
+			case 0:
+				sb.append("<CR>A").append(source).append(1000 + random.nextInt(9000)).append("<LF>");
+				break;
+			case 1:
+				sb.append("<CR>C").append(source).append(1000 + random.nextInt(9000)).append("<LF>");
+				break;
+			case 2:
+				sb.append("<CR>I").append(source).append("<LF>");
+				break;
+			default:
+				int digit = random.nextInt(11);
+				sb.append("<CR>D").append(source).append(digit == 10 ? "#" : Integer.toString(digit)).append("<LF>");
+			}
+			if (random.nextDouble() < noise) {
+				sb.insert(sb.length() - random.nextInt(8), noises[random.nextInt(noises.length)]);
+			}
+		}
+		return sb.toString();
+	}
+
+	private void checkSameCommands(String input, Random random) {
+		String expected = layered(input);
+
+		Commands chars = new Commands();
+		FusedScanner scanner = new FusedScanner(chars);
+		char[] array = input.toCharArray();
+		int offset = 0;
+		while (offset < array.length) {
+			int length = Math.min(array.length - offset, random.nextInt(50));
+			scanner.receive(array, offset, length);
+			offset += length;
+		}
+		Assert.assertEquals(expected, chars.output.toString());
+
+		Commands bytes = new Commands();
+		scanner = new FusedScanner(bytes);
+		ByteBuffer direct = ByteBuffer.allocateDirect(array.length);
+		direct.put(input.getBytes(StandardCharsets.ISO_8859_1));
+		direct.flip();
+		scanner.receive(direct);
+		Assert.assertEquals(expected, bytes.output.toString());
+	}
+
+	public void testSampleFile() throws IOException {
+		String input = new String(Files.readAllBytes(Paths.get("a.txt")), StandardCharsets.ISO_8859_1);
+		checkSameCommands(input, new Random(1));
+	}
+
+	public void testWellFormed() {
+		Random random = new Random(2);
+		checkSameCommands(randomInput(random, 2000, 0), random);
+	}
+
+	public void testMalformedInput() {
+		Random random = new Random(3);
+		for (int i = 0; i < 10; i++) {
+			checkSameCommands(randomInput(random, 100, 0.1), random);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package pabx.read;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring of 'int' between one producer thread and one consumer thread
+ *
+ * No lock: the producer publishes 'tail' and the consumer publishes 'head' with an
+ * ordered write, each side keeps a copy of the other index and only reads it again
+ * when the ring looks full (or empty).
+ */
+class IntRing {
+	private final int[] buffer;
+	private final int mask;
+	private final WaitStrategy wait;
+
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Producer side
+	 */
+	private long nextTail;
+	private long cachedHead;
+
+	/**
+	 * Consumer side
+	 */
+	private long nextHead;
+	private long cachedTail;
+
+	IntRing(int capacity, WaitStrategy wait) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}
+		buffer = new int[capacity];
+		mask = capacity - 1;
+		this.wait = wait;
+	}
+
+	void put(int v) {
+		long t = nextTail;
+		int spins = 0;
+		while (t - cachedHead > mask) {
+			cachedHead = head.get();
+			if (t - cachedHead > mask) {
+				wait.idle(spins++);
+			}
+		}
+		buffer[(int) t & mask] = v;
+		nextTail = t + 1;
+		tail.lazySet(t + 1);
+	}
+
+	int take() {
+		long h = nextHead;
+		int spins = 0;
+		while (h == cachedTail) {
+			cachedTail = tail.get();
+			if (h == cachedTail) {
+				wait.idle(spins++);
+			}
+		}
+		int v = buffer[(int) h & mask];
+		nextHead = h + 1;
+		head.lazySet(h + 1);
+		return v;
+	}
+}
@@ -0,0 +1,70 @@
+package pabx.read;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read a file by mapping it in memory and send the mapped bytes to the
+ * subscribers. PABX traces are pure ASCII so the bytes are not decoded.
+ *
+ * The file is mapped window by window so files bigger than 2GB can be read,
+ * the subscribers keep their state between two windows so a command can
+ * straddle a window boundary.
+ *
+ */
+class MappedReadFile {
+	static long defaultWindowSize = 64L * 1024 * 1024;
+
+	List<ChunkInput> subscribers = new ArrayList<ChunkInput>();
+	private final long windowSize;
+
+	MappedReadFile() {
+		this(defaultWindowSize);
+	}
+
+	MappedReadFile(long windowSize) {
+		if (windowSize <= 0 || windowSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid window size " + windowSize);
+		}
+		this.windowSize = windowSize;
+	}
+
+	boolean read(String filename) {
+		boolean ret = false;
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			read(file.getChannel());
+			ret = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return ret;
+	}
+
+	void read(FileChannel channel) throws IOException {
+		read(channel, 0);
+	}
+
+	/**
+	 * Read from offset 'from' to the end, e.g. to go on after a ScannerSnapshot
+	 */
+	void read(FileChannel channel, long from) throws IOException {
+		long size = channel.size();
+		for (long position = from; position < size; position += windowSize) {
+			long length = Math.min(windowSize, size - position);
+			MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, length);
+			for (ChunkInput subscriber : subscribers) {
+				window.position(0);
+				subscriber.receive(window);
+			}
+		}
+	}
+
+	void subscribe(ChunkInput subscriber) {
+		subscribers.add(subscriber);
+	}
+}
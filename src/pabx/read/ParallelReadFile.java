@@ -0,0 +1,268 @@
+package pabx.read;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import pabx.read.Parser.Command;
+import pabx.read.Parser.Dial;
+
+/**
+ * Parse a file on several cores
+ *
+ * The file is split in chunks that start with "<CR>", each chunk is parsed by its
+ * own FusedScanner on a fork-join pool and the results are merged in file order,
+ * so the commands are the same, and in the same order, as with a single scanner.
+ *
+ * The 'D' digits of an extension can be spread over several chunks: each chunk
+ * records the digits dialed before its first '#' and the digits left at its end
+ * (see ChunkDialAccumulator), the merge completes the Dial commands with the digits
+ * dialed in the previous chunks and keeps dialedNumbers up to date.
+ *
+ * If a chunk does not end between two frames (malformed input), its scanner carries
+ * on with the next chunk and the result computed for that chunk is dropped, its errors
+ * too: the errors of a chunk are only reported when the chunk is merged.
+ */
+class ParallelReadFile {
+	static long defaultChunkSize = 8L * 1024 * 1024;
+	static int maxWindow = 1 << 30;
+	static int probeSize = 64 * 1024;
+
+	private final Input<Command> output;
+	private final ForkJoinPool pool;
+	private final long chunkSize;
+
+	/**
+	 * Errors, with their offsets in the file
+	 */
+	Input<ParseError> errors = ErrorReporter.shared;
+
+	/**
+	 * Digits dialed by each extension at the end of the last merged chunk
+	 */
+	DialAccumulator dialedNumbers = new FlatDialAccumulator();
+
+	ParallelReadFile(Input<Command> output) {
+		this(output, ForkJoinPool.commonPool(), defaultChunkSize);
+	}
+
+	ParallelReadFile(Input<Command> output, ForkJoinPool pool, long chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+		}
+		this.output = output;
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Accumulator used by the scanner of a chunk, it does not know the digits
+	 * dialed in the previous chunks so it records:
+	 * - whether the last take() was the first one of the extension in the chunk,
+	 *   the digits of the previous chunks have then to be added in front
+	 * - the extensions used in the chunk and those for which a '#' was received
+	 */
+	static class ChunkDialAccumulator extends FlatDialAccumulator {
+		final boolean[] reset = new boolean[EXTENSIONS];
+		final boolean[] touched = new boolean[EXTENSIONS];
+		int[] touchedList = new int[16];
+		int touchedCount;
+		boolean prefixPending;
+
+		private void touch(int source) {
+			if (!touched[source]) {
+				touched[source] = true;
+				if (touchedCount == touchedList.length) {
+					touchedList = Arrays.copyOf(touchedList, touchedCount * 2);
+				}
+				touchedList[touchedCount++] = source;
+			}
+		}
+
+		@Override
+		void append(int source, int digit) {
+			touch(source);
+			super.append(source, digit);
+		}
+
+		@Override
+		String take(int source) {
+			touch(source);
+			prefixPending = !reset[source];
+			reset[source] = true;
+			return super.take(source);
+		}
+	}
+
+	class Chunk implements Input<Command>, Callable<Chunk> {
+		final FileChannel channel;
+		final long start;
+		long end;
+		final ChunkDialAccumulator digits = new ChunkDialAccumulator();
+		final FusedScanner scanner = new FusedScanner(this, digits);
+		final List<Command> commands = new ArrayList<Command>();
+		final List<Integer> prefixed = new ArrayList<Integer>();
+		/**
+		 * Sent with the commands, so the errors of a dropped chunk are not reported
+		 */
+		final List<ParseError> chunkErrors = new ArrayList<ParseError>();
+
+		Chunk(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			scanner.setPosition(start);
+			scanner.errors = new Input<ParseError>() {
+				@Override
+				public void receive(ParseError e) {
+					chunkErrors.add(e);
+				}
+			};
+		}
+
+		@Override
+		public Chunk call() {
+			scan(start, end);
+			return this;
+		}
+
+		void scan(long from, long to) {
+			try {
+				for (long position = from; position < to; position += maxWindow) {
+					long length = Math.min(maxWindow, to - position);
+					scanner.receive(channel.map(MapMode.READ_ONLY, position, length));
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * The next chunk starts with a "<CR>", which ends the skip after an unexpected
+		 * token (see FusedScanner)
+		 */
+		void endSkip() {
+			long skipStart = scanner.skipStart();
+			if (skipStart >= 0 && end > skipStart) {
+				chunkErrors.add(new ParseError(ParseError.Kind.SKIPPED, skipStart,
+						(int) Math.min(Integer.MAX_VALUE, end - skipStart)));
+			}
+		}
+
+		/**
+		 * Carry on with the bytes of the next chunk
+		 */
+		void extend(Chunk next) {
+			scan(next.start, next.end);
+			end = next.end;
+		}
+
+		@Override
+		public void receive(Command c) {
+			// the Dial is sent just after the take() of its '#'
+			if (c instanceof Dial && digits.prefixPending) {
+				prefixed.add(commands.size());
+			}
+			digits.prefixPending = false;
+			commands.add(c);
+		}
+	}
+
+	boolean read(String filename) {
+		boolean ret = false;
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			read(file.getChannel());
+			ret = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return ret;
+	}
+
+	void read(FileChannel channel) throws IOException {
+		long size = channel.size();
+		int maxInFlight = pool.getParallelism() * 2;
+		ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<ForkJoinTask<Chunk>>();
+		long start = 0;
+		Chunk pending = null;
+		while (start < size || !inFlight.isEmpty()) {
+			while (start < size && inFlight.size() < maxInFlight) {
+				long end = nextFrame(channel, start + chunkSize, size);
+				inFlight.add(pool.submit(new Chunk(channel, start, end)));
+				start = end;
+			}
+			Chunk chunk = inFlight.poll().join();
+			if (pending != null) {
+				// the previous chunk ended in the middle of a frame
+				pending.extend(chunk);
+				chunk = pending;
+			}
+			if (chunk.scanner.isInitial()) {
+				if (chunk.end < size) {
+					chunk.endSkip();
+				}
+				merge(chunk);
+				pending = null;
+			} else {
+				pending = chunk;
+			}
+		}
+		if (pending != null) {
+			merge(pending);
+		}
+	}
+
+	private void merge(Chunk chunk) {
+		ChunkDialAccumulator digits = chunk.digits;
+		for (int i : chunk.prefixed) {
+			Dial d = (Dial) chunk.commands.get(i);
+			chunk.commands.set(i, new Dial(d.source, dialedNumbers.take(d.source) + d.getDigits()));
+		}
+		for (int i = 0; i < digits.touchedCount; i++) {
+			int source = digits.touchedList[i];
+			if (digits.reset[source]) {
+				dialedNumbers.take(source);
+			}
+			dialedNumbers.append(source, digits.peek(source));
+		}
+		for (ParseError e : chunk.chunkErrors) {
+			errors.receive(e);
+		}
+		for (Command c : chunk.commands) {
+			output.receive(c);
+		}
+	}
+
+	/**
+	 * Position of the first "<CR>" at or after 'from', 'size' if there is none
+	 */
+	static long nextFrame(FileChannel channel, long from, long size) throws IOException {
+		long position = from;
+		while (position < size) {
+			int length = (int) Math.min(probeSize, size - position);
+			MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, length);
+			for (int i = 0; i + 3 < length; i++) {
+				if (window.get(i) == '<' && window.get(i + 1) == 'C' && window.get(i + 2) == 'R'
+						&& window.get(i + 3) == '>') {
+					return position + i;
+				}
+			}
+			if (position + length == size) {
+				break;
+			}
+			// a "<CR>" can straddle two windows
+			position += length - 3;
+		}
+		return size;
+	}
+}
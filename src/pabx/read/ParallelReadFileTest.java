@@ -0,0 +1,70 @@
+package pabx.read;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream;
+
+public class ParallelReadFileTest extends TestCase {
+
+	private File write(String input) throws IOException {
+		File file = File.createTempFile("pabx", ".txt");
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(input.getBytes(StandardCharsets.ISO_8859_1));
+		fos.close();
+		return file;
+	}
+
+	/**
+	 * Parse the input with small chunks and compare with a single FusedScanner
+	 */
+	private void checkSameCommands(String input, long chunkSize) throws IOException {
+		FusedScannerTest.Commands expected = new FusedScannerTest.Commands();
+		ParseErrorTest.Errors expectedErrors = new ParseErrorTest.Errors();
+		FusedScanner scanner = new FusedScanner(expected);
+		scanner.errors = expectedErrors;
+		char[] chars = input.toCharArray();
+		scanner.receive(chars, 0, chars.length);
+
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ParallelReadFile prf = new ParallelReadFile(commands, pool, chunkSize);
+		// the errors of a chunk that is scanned again are reported once, at their offset in the file
+		ParseErrorTest.Errors errors = new ParseErrorTest.Errors();
+		prf.errors = errors;
+		Assert.assertTrue(prf.read(write(input).getPath()));
+		pool.shutdown();
+
+		Assert.assertEquals(expected.output.toString(), commands.output.toString());
+		Assert.assertEquals(expectedErrors.errors, errors.errors);
+		for (int source = 0; source < DialAccumulator.EXTENSIONS; source++) {
+			Assert.assertEquals(scanner.dialedNumbers.peek(source), prf.dialedNumbers.peek(source));
+		}
+	}
+
+	public void testDialsAcrossChunks() throws IOException {
+		// few phones and a lot of Dial so the digits of a number are spread over chunks
+		String input = GenerateEventStream.generate(3, 5000, new int[] { 1, 1, 1, 8 });
+		checkSameCommands(input, 100);
+		checkSameCommands(input, 1000);
+		checkSameCommands(input, 1 << 20);
+	}
+
+	public void testUnfinishedDials() throws IOException {
+		checkSameCommands("<CR>D12341<LF><CR>D12342<LF><CR>D1234#<LF><CR>D12343<LF>", 10);
+	}
+
+	public void testMalformedInput() throws IOException {
+		Random random = new Random(4);
+		for (int i = 0; i < 10; i++) {
+			checkSameCommands(FusedScannerTest.randomInput(random, 300, 0.1), 50 + random.nextInt(200));
+		}
+	}
+}
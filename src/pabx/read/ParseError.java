@@ -0,0 +1,53 @@
+package pabx.read;
+
+/**
+ * Error found in the stream by a tokenizer or a parser
+ *
+ * 'offset' is the offset in the stream of the char in error, or of the last char of
+ * the unexpected token, so all the engines report the same errors at the same offsets
+ * (a parser that is given tokens without their offsets counts in tokens instead).
+ * 'value' depends on the kind.
+ */
+class ParseError {
+	enum Kind {
+		/**
+		 * 'value' is the char
+		 */
+		UNEXPECTED_CHARACTER,
+		/**
+		 * 'value' is the token code (see Tokenizer)
+		 */
+		UNEXPECTED_TOKEN,
+		/**
+		 * After an unexpected token, everything up to the next "<CR>" is skipped without
+		 * reporting an error for each char or token (the unexpected chars in it are not
+		 * counted in the metrics either), 'value' is the number of chars (or tokens)
+		 * skipped
+		 */
+		SKIPPED
+	}
+
+	private static final String[] names = { "A", "C", "I", "D", "#", "<CR>", "<LF>" };
+
+	final Kind kind;
+	final long offset;
+	final int value;
+
+	ParseError(Kind kind, long offset, int value) {
+		this.kind = kind;
+		this.offset = offset;
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+		case UNEXPECTED_CHARACTER:
+			return "Unexpected character " + (char) value + " at " + offset;
+		case UNEXPECTED_TOKEN:
+			return "Unexpected Token " + (value < 10 ? Integer.toString(value) : names[value - 10]) + " at " + offset;
+		default:
+			return "Skipped " + value + " at " + offset;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package pabx.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ParseErrorTest extends TestCase {
+
+	static final Input<ParseError> ignore = new Input<ParseError>() {
+		@Override
+		public void receive(ParseError e) {
+		}
+	};
+
+	static class Errors implements Input<ParseError> {
+		final List<String> errors = new ArrayList<String>();
+
+		@Override
+		public void receive(ParseError e) {
+			errors.add(e.kind + "@" + e.offset + ":" + e.value);
+		}
+	}
+
+	private static final String input = "<CR>I12<LF>34<CR>I1234<LF>";
+
+	public void testFusedScanner() {
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		Errors errors = new Errors();
+		FusedScanner scanner = new FusedScanner(commands);
+		scanner.errors = errors;
+		char[] chars = input.toCharArray();
+		scanner.receive(chars, 0, chars.length);
+		Assert.assertEquals("I1234 ", commands.output.toString());
+		Assert.assertEquals("[UNEXPECTED_TOKEN@10:16, SKIPPED@11:2]", errors.errors.toString());
+	}
+
+	public void testParser() {
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		Errors errors = new Errors();
+		Parser parser = new Parser(commands);
+		parser.errors = errors;
+		Tokenizer tokenizer = new Tokenizer(parser);
+		tokenizer.errors = errors;
+		char[] chars = ("x" + input).toCharArray();
+		tokenizer.receive(chars, 0, chars.length);
+		Assert.assertEquals("I1234 ", commands.output.toString());
+		Assert.assertEquals("[UNEXPECTED_CHARACTER@0:120, UNEXPECTED_TOKEN@11:16, SKIPPED@12:2]",
+				errors.errors.toString());
+	}
+
+	/**
+	 * Without a Tokenizer, Parser counts in tokens
+	 */
+	public void testParserTokens() {
+		Errors errors = new Errors();
+		Parser parser = new Parser(new FusedScannerTest.Commands());
+		parser.errors = errors;
+		for (Tokenizer.Token t : new Tokenizer.Token[] { Tokenizer.cr, Tokenizer.idle, Tokenizer.lf,
+				Tokenizer.digits[3], Tokenizer.digits[4], Tokenizer.cr }) {
+			parser.receive(t);
+		}
+		Assert.assertEquals("[UNEXPECTED_TOKEN@2:16, SKIPPED@3:2]", errors.errors.toString());
+	}
+
+	/**
+	 * All the engines report the same errors at the same offsets of the stream
+	 */
+	public void testSameErrors() {
+		Random random = new Random(8);
+		for (int n = 0; n < 20; n++) {
+			String noisy = FusedScannerTest.randomInput(random, 300, 0.2);
+			char[] chars = noisy.toCharArray();
+
+			Errors fused = new Errors();
+			FusedScanner scanner = new FusedScanner(new FusedScannerTest.Commands());
+			scanner.errors = fused;
+			int offset = 0;
+			while (offset < chars.length) {
+				int length = Math.min(chars.length - offset, random.nextInt(20));
+				scanner.receive(chars, offset, length);
+				offset += length;
+			}
+
+			Errors layered = new Errors();
+			Parser parser = new Parser(new FusedScannerTest.Commands());
+			parser.errors = layered;
+			Tokenizer tokenizer = new Tokenizer(parser);
+			tokenizer.errors = layered;
+			for (char c : chars) {
+				tokenizer.receive((int) c);
+			}
+
+			// in chunks, skipped ahead after the unexpected tokens
+			Errors chunks = new Errors();
+			parser = new Parser(new FusedScannerTest.Commands());
+			parser.errors = chunks;
+			tokenizer = new Tokenizer(parser);
+			tokenizer.errors = chunks;
+			offset = 0;
+			while (offset < chars.length) {
+				int length = Math.min(chars.length - offset, random.nextInt(20));
+				if (length % 2 == 0) {
+					tokenizer.receive(chars, offset, length);
+				} else {
+					tokenizer.receive(ByteBuffer.wrap(noisy.substring(offset, offset + length).getBytes(
+							StandardCharsets.ISO_8859_1)));
+				}
+				offset += length;
+			}
+
+			Errors table = new Errors();
+			parser = new Parser(new FusedScannerTest.Commands());
+			parser.errors = table;
+			TableTokenizer tableTokenizer = new TableTokenizer(parser);
+			tableTokenizer.errors = table;
+			tableTokenizer.receive(chars, 0, chars.length / 2);
+			tableTokenizer.receive(ByteBuffer.wrap(noisy.substring(chars.length / 2).getBytes(
+					StandardCharsets.ISO_8859_1)));
+
+			// any TokenParser gets the offsets
+			Errors code = new Errors();
+			CodeParser codeParser = new CodeParser(new FusedScannerTest.Commands());
+			codeParser.errors = code;
+			tableTokenizer = new TableTokenizer(codeParser);
+			tableTokenizer.errors = code;
+			tableTokenizer.receive(chars, 0, chars.length);
+
+			final Errors pipelined = new Errors();
+			PipelinedReader reader = new PipelinedReader(new FusedScannerTest.Commands(), 16, WaitStrategy.PARK, 10);
+			reader.errors = pipelined;
+			reader.read(new StringReader(noisy));
+
+			Assert.assertFalse(fused.errors.isEmpty());
+			Assert.assertEquals(fused.errors, layered.errors);
+			Assert.assertEquals(fused.errors, chunks.errors);
+			Assert.assertEquals(fused.errors, table.errors);
+			Assert.assertEquals(fused.errors, code.errors);
+			Assert.assertEquals(fused.errors, pipelined.errors);
+		}
+	}
+
+	/**
+	 * The skip ahead does not change the commands, whatever the chunks
+	 */
+	public void testSkipAhead() {
+		Random random = new Random(7);
+		for (int n = 0; n < 20; n++) {
+			String noisy = FusedScannerTest.randomInput(random, 300, 0.2);
+			FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+			FusedScanner scanner = new FusedScanner(commands);
+			scanner.errors = ignore;
+			char[] chars = noisy.toCharArray();
+			int offset = 0;
+			while (offset < chars.length) {
+				int length = Math.min(chars.length - offset, random.nextInt(20));
+				scanner.receive(chars, offset, length);
+				offset += length;
+			}
+			Assert.assertEquals(FusedScannerTest.layered(noisy), commands.output.toString());
+		}
+	}
+
+	public void testRateLimit() {
+		final long[] now = { 0 };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ErrorReporter reporter = new ErrorReporter(new PrintStream(bytes, true), 2, new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return now[0];
+			}
+		});
+		for (int i = 0; i < 5; i++) {
+			ErrorReporter.report(reporter, ParseError.Kind.UNEXPECTED_CHARACTER, i, 'x');
+		}
+		now[0] = 2000000000L;
+		reporter.receive(new ParseError(ParseError.Kind.UNEXPECTED_TOKEN, 5, Tokenizer.CODE_LF));
+		String nl = System.lineSeparator();
+		Assert.assertEquals("Unexpected character x at 0" + nl + "Unexpected character x at 1" + nl + "3 more errors"
+				+ nl + "Unexpected Token <LF> at 5" + nl, bytes.toString());
+	}
+}
@@ -1,8 +1,5 @@
 package pabx.read;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import pabx.read.Input;
 import pabx.read.Tokenizer.Token;
 
@@ -11,7 +8,7 @@ import pabx.read.Tokenizer.Token;
  * @author bpasquereau
  *
  */
-class Parser implements Input<Token> {
+class Parser implements Input<Token>, TokenParser {
 
 	/**
 	 * Base state
@@ -168,7 +165,7 @@ class Parser implements Input<Token> {
 	 * 
 	 * Note: it is probably possible to share code with IdleDigitsState
 	 */
-	Map<Integer,String> dialedNumbers = new HashMap<Integer,String>();
+	DialAccumulator dialedNumbers = new FlatDialAccumulator();
 
 	class DialDigitsState extends State {
 
@@ -176,7 +173,7 @@ class Parser implements Input<Token> {
 		private int index;
 		protected int source = 0;
 		private String allDigits = null;
-		private String newDigit = null;
+		private int newDigit = -1;
 
 		DialDigitsState(int index) {
 			this.index = index;
@@ -197,26 +194,17 @@ class Parser implements Input<Token> {
 					ret = this;
 				} else if (index == totalDigits) {
 					index++;
-					newDigit = new Integer(digit).toString();
+					newDigit = digit;
 					ret = this;
 				}
 			} else if (index == totalDigits && t == Tokenizer.sharp) {
 				// All digits have been received
-				if (dialedNumbers.containsKey(source)) {
-					allDigits = dialedNumbers.get(source);
-					dialedNumbers.remove(source);
-				} else {
-					allDigits = "";
-				}
+				allDigits = dialedNumbers.take(source);
 				index++;
 				ret = this;
 			} else if (index == (totalDigits + 1) && t == Tokenizer.lf) {
-				if (newDigit != null) {
-					String digits = newDigit;
-					if (dialedNumbers.containsKey(source)) {
-						digits = dialedNumbers.get(source) + digits;
-					}
-					dialedNumbers.put(source, digits);
+				if (newDigit >= 0) {
+					dialedNumbers.append(source, newDigit);
 					ret = new InitialState();
 				} else if (allDigits != null) {
 					ret = new InitialState(new Dial(source, allDigits));
@@ -334,23 +322,98 @@ class Parser implements Input<Token> {
 
 	Input<Command> output;
 
+	/**
+	 * Errors, with the offset of the last char of the token in the stream when the tokens
+	 * come from a Tokenizer, else with the offset of the token in the stream of tokens
+	 *
+	 * After an unexpected token the tokens are skipped up to the next <CR> and
+	 * reported as a single SKIPPED error
+	 */
+	Input<ParseError> errors = ErrorReporter.shared;
+	/**
+	 * Offset of the next token
+	 */
+	private long position;
+	/**
+	 * Offset of the first token skipped, -1 when not skipping
+	 */
+	private long skipStart = -1;
+
+	private ParserMetrics.Probe probe;
+
 	Parser(Input<Command> output) {
 		this.output = output;
 	}
 
+	/**
+	 * Count the commands and errors in 'metrics', null to stop
+	 */
+	void setMetrics(ParserMetrics metrics) {
+		probe = metrics == null ? null : metrics.probe(dialedNumbers);
+	}
+
+	@Override
+	public void flushMetrics() {
+		if (probe != null) {
+			probe.flush();
+		}
+	}
+
 	State state = new InitialState();
 
 	@Override
 	public void receive(Token t) {
 		if (t != null) {
+			receive(t, position, position);
+		}
+	}
+
+	@Override
+	public boolean isSkipping() {
+		return skipStart >= 0;
+	}
+
+	@Override
+	public void receive(int code, long start, long end) {
+		receive(Tokenizer.tokens[code], start, end);
+	}
+
+	/**
+	 * 't' is made of the chars 'start' to 'end' (included) of the stream
+	 */
+	void receive(Token t, long start, long end) {
+		if (t != null) {
+			position = end + 1;
+			if (skipStart >= 0) {
+				// after an error only a <CR> can start a command
+				if (t != Tokenizer.cr) {
+					return;
+				}
+				if (start > skipStart) {
+					ErrorReporter.report(errors, ParseError.Kind.SKIPPED, skipStart,
+							(int) Math.min(Integer.MAX_VALUE, start - skipStart));
+				}
+				skipStart = -1;
+			}
+			if (probe != null && t == Tokenizer.cr && state instanceof InitialState) {
+				probe.frame();
+			}
 			State newState = state.nextState(t);
 			if (newState == null) {
-				System.out.println("Unexpected Token "+t.toString());
+				if (probe != null) {
+					probe.parserError();
+				}
+				ErrorReporter.report(errors, ParseError.Kind.UNEXPECTED_TOKEN, end, t.code);
 				state = new InitialState();
+				skipStart = position;
 			} else {
 				state = newState;
 			}
 			if (state.command != null) {
+				if (probe != null) {
+					probe.command(ParserMetrics.type(state.command));
+					probe.tick();
+				}
 				output.receive(state.command);
 			}
 		}
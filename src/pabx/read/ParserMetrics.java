@@ -0,0 +1,334 @@
+package pabx.read;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the parsing engines, shared by all the engines that use them
+ *
+ * The engines (Tokenizer, Parser, FusedScanner) do not touch the shared counters for
+ * every char: each one has its own Probe with plain fields, only used by its thread,
+ * which is added to the LongAdder counters at the end of each chunk. An engine given a
+ * char or a token at a time flushes every FLUSH_EVERY of them (tick), the rest is
+ * flushed by the next chunk or by flushMetrics() at the end of the stream. The counters
+ * can be read with snapshot() or through JMX (register).
+ *
+ * The latency of a command is the time between its "<CR>" and the moment it is sent
+ * to the output, only one frame out of 2^sampleShift is timed.
+ */
+class ParserMetrics implements ParserMetricsMXBean {
+	static final int ATTEMPT = 0;
+	static final int CONNECT = 1;
+	static final int IDLE = 2;
+	static final int DIAL = 3;
+	static final int TYPES = 4;
+
+	static int defaultSampleShift = 6;
+	static final int FLUSH_EVERY = 4096;
+
+	static int type(Parser.Command c) {
+		if (c instanceof Parser.Attempt) {
+			return ATTEMPT;
+		} else if (c instanceof Parser.Connect) {
+			return CONNECT;
+		} else if (c instanceof Parser.Idle) {
+			return IDLE;
+		}
+		return DIAL;
+	}
+
+	/**
+	 * Histogram with one bucket per power of 2
+	 */
+	static class Histogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+
+		void record(long value) {
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(value, 0)) & 63);
+		}
+
+		long count() {
+			long n = 0;
+			for (int i = 0; i < buckets.length(); i++) {
+				n += buckets.get(i);
+			}
+			return n;
+		}
+
+		/**
+		 * Upper bound of the bucket of the percentile 'p' (0 to 100), 0 if there is no value
+		 */
+		long percentile(double p) {
+			long count = count();
+			long rank = (long) Math.ceil(count * p / 100);
+			long n = 0;
+			for (int i = 0; i < buckets.length() && count > 0; i++) {
+				n += buckets.get(i);
+				if (n >= rank && n > 0) {
+					return i == 0 ? 0 : (1L << i) - 1;
+				}
+			}
+			return 0;
+		}
+
+		void reset() {
+			for (int i = 0; i < buckets.length(); i++) {
+				buckets.set(i, 0);
+			}
+		}
+	}
+
+	/**
+	 * Counters of one engine, single threaded
+	 */
+	class Probe {
+		long bytes;
+		long tokens;
+		final long[] commands = new long[TYPES];
+		private long frames;
+		private long frameStart;
+		private boolean lost;
+		private int pending;
+
+		/**
+		 * A "<CR>" starts a frame
+		 */
+		void frame() {
+			if (lost) {
+				lost = false;
+				resyncs.increment();
+			}
+			frameStart = (frames++ & sampleMask) == 0 ? System.nanoTime() : 0;
+		}
+
+		void command(int type) {
+			commands[type]++;
+			if (frameStart != 0) {
+				latency[type].record(System.nanoTime() - frameStart);
+				frameStart = 0;
+			}
+		}
+
+		void tokenizerError() {
+			tokenizerErrors.increment();
+		}
+
+		void parserError() {
+			lost = true;
+			frameStart = 0;
+			parserErrors.increment();
+		}
+
+		/**
+		 * A char or a token has been counted, flush every FLUSH_EVERY of them
+		 */
+		void tick() {
+			if (++pending == FLUSH_EVERY) {
+				flush();
+			}
+		}
+
+		void flush() {
+			pending = 0;
+			if (bytes != 0) {
+				ParserMetrics.this.bytes.add(bytes);
+				bytes = 0;
+			}
+			if (tokens != 0) {
+				ParserMetrics.this.tokens.add(tokens);
+				tokens = 0;
+			}
+			for (int i = 0; i < TYPES; i++) {
+				if (commands[i] != 0) {
+					ParserMetrics.this.commands[i].add(commands[i]);
+					commands[i] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Values of the counters at a given time
+	 */
+	static class Snapshot {
+		final long bytes;
+		final long tokens;
+		final long[] commands;
+		final long tokenizerErrors;
+		final long parserErrors;
+		final long resyncs;
+		final int dialsInFlight;
+		final long[] latencyP50;
+		final long[] latencyP99;
+
+		Snapshot(ParserMetrics m) {
+			bytes = m.bytes.sum();
+			tokens = m.tokens.sum();
+			commands = new long[TYPES];
+			latencyP50 = new long[TYPES];
+			latencyP99 = new long[TYPES];
+			for (int i = 0; i < TYPES; i++) {
+				commands[i] = m.commands[i].sum();
+				latencyP50[i] = m.latency[i].percentile(50);
+				latencyP99[i] = m.latency[i].percentile(99);
+			}
+			tokenizerErrors = m.tokenizerErrors.sum();
+			parserErrors = m.parserErrors.sum();
+			resyncs = m.resyncs.sum();
+			dialsInFlight = m.getDialsInFlight();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("bytes=%d tokens=%d A=%d C=%d I=%d D=%d tokenizerErrors=%d parserErrors=%d"
+					+ " resyncs=%d dialsInFlight=%d", bytes, tokens, commands[ATTEMPT], commands[CONNECT],
+					commands[IDLE], commands[DIAL], tokenizerErrors, parserErrors, resyncs, dialsInFlight);
+		}
+	}
+
+	final LongAdder bytes = new LongAdder();
+	final LongAdder tokens = new LongAdder();
+	final LongAdder[] commands = new LongAdder[TYPES];
+	final LongAdder tokenizerErrors = new LongAdder();
+	final LongAdder parserErrors = new LongAdder();
+	final LongAdder resyncs = new LongAdder();
+	final Histogram[] latency = new Histogram[TYPES];
+	/**
+	 * The accumulators of the engines, weakly referenced: the engines are not closed,
+	 * e.g. the streams of a Demultiplexer or the scanners of the chunks of a file
+	 */
+	private final Set<DialAccumulator> accumulators = Collections
+			.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<DialAccumulator, Boolean>()));
+	private final long sampleMask;
+
+	ParserMetrics() {
+		this(defaultSampleShift);
+	}
+
+	ParserMetrics(int sampleShift) {
+		sampleMask = (1L << sampleShift) - 1;
+		for (int i = 0; i < TYPES; i++) {
+			commands[i] = new LongAdder();
+			latency[i] = new Histogram();
+		}
+	}
+
+	/**
+	 * New probe for an engine, 'dialedNumbers' (can be null) is counted in the dials in flight
+	 */
+	Probe probe(DialAccumulator dialedNumbers) {
+		if (dialedNumbers != null) {
+			accumulators.add(dialedNumbers);
+		}
+		return new Probe();
+	}
+
+	/**
+	 * Number of accumulators still referenced by their engines
+	 */
+	int accumulators() {
+		return accumulators.size();
+	}
+
+	Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * Register in the platform MBean server as pabx:type=ParserMetrics,name='name'
+	 */
+	ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("pabx:type=ParserMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	@Override
+	public long getTokens() {
+		return tokens.sum();
+	}
+
+	@Override
+	public long getAttempts() {
+		return commands[ATTEMPT].sum();
+	}
+
+	@Override
+	public long getConnects() {
+		return commands[CONNECT].sum();
+	}
+
+	@Override
+	public long getIdles() {
+		return commands[IDLE].sum();
+	}
+
+	@Override
+	public long getDials() {
+		return commands[DIAL].sum();
+	}
+
+	@Override
+	public long getTokenizerErrors() {
+		return tokenizerErrors.sum();
+	}
+
+	@Override
+	public long getParserErrors() {
+		return parserErrors.sum();
+	}
+
+	@Override
+	public long getResyncs() {
+		return resyncs.sum();
+	}
+
+	/**
+	 * Extensions with digits dialed and no '#' yet, read without synchronisation
+	 */
+	@Override
+	public int getDialsInFlight() {
+		int n = 0;
+		synchronized (accumulators) {
+			for (DialAccumulator a : accumulators) {
+				n += a.size();
+			}
+		}
+		return n;
+	}
+
+	@Override
+	public long[] getLatencyP50Nanos() {
+		return snapshot().latencyP50;
+	}
+
+	@Override
+	public long[] getLatencyP99Nanos() {
+		return snapshot().latencyP99;
+	}
+
+	@Override
+	public void reset() {
+		bytes.reset();
+		tokens.reset();
+		tokenizerErrors.reset();
+		parserErrors.reset();
+		resyncs.reset();
+		for (int i = 0; i < TYPES; i++) {
+			commands[i].reset();
+			latency[i].reset();
+		}
+	}
+}
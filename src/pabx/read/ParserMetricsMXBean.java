@@ -0,0 +1,33 @@
+package pabx.read;
+
+/**
+ * Management interface of ParserMetrics, the latency arrays are indexed by command
+ * type: Attempt, Connect, Idle, Dial
+ */
+public interface ParserMetricsMXBean {
+	long getBytes();
+
+	long getTokens();
+
+	long getAttempts();
+
+	long getConnects();
+
+	long getIdles();
+
+	long getDials();
+
+	long getTokenizerErrors();
+
+	long getParserErrors();
+
+	long getResyncs();
+
+	int getDialsInFlight();
+
+	long[] getLatencyP50Nanos();
+
+	long[] getLatencyP99Nanos();
+
+	void reset();
+}
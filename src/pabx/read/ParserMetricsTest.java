@@ -0,0 +1,167 @@
+package pabx.read;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ParserMetricsTest extends TestCase {
+
+	private static final String input = "<CR>A12345678<LF><CR>C12345678<LF><CR>D12341<LF><CR>D12342<LF>"
+			+ "<CR>I1234<LF><CR>D1234#<LF><CR>D43219<LF>";
+
+	public void testCounters() {
+		ParserMetrics metrics = new ParserMetrics(0);
+		FusedScanner scanner = new FusedScanner(new FusedScannerTest.Commands());
+		scanner.setMetrics(metrics);
+		char[] chars = input.toCharArray();
+		scanner.receive(chars, 0, chars.length);
+
+		ParserMetrics.Snapshot s = metrics.snapshot();
+		Assert.assertEquals(input.length(), s.bytes);
+		Assert.assertEquals(1, s.commands[ParserMetrics.ATTEMPT]);
+		Assert.assertEquals(1, s.commands[ParserMetrics.CONNECT]);
+		Assert.assertEquals(1, s.commands[ParserMetrics.IDLE]);
+		Assert.assertEquals(1, s.commands[ParserMetrics.DIAL]);
+		Assert.assertEquals(0, s.tokenizerErrors + s.parserErrors);
+		// 4321 has dialed a digit
+		Assert.assertEquals(1, s.dialsInFlight);
+		Assert.assertEquals(1, metrics.latency[ParserMetrics.DIAL].count());
+	}
+
+	/**
+	 * Tokenizer + Parser and FusedScanner count the same things
+	 */
+	public void testSameAsLayered() {
+		String noisy = FusedScannerTest.randomInput(new Random(6), 500, 0.1);
+		char[] chars = noisy.toCharArray();
+
+		ParserMetrics fused = new ParserMetrics();
+		FusedScanner scanner = new FusedScanner(new FusedScannerTest.Commands());
+		scanner.errors = ParseErrorTest.ignore;
+		scanner.setMetrics(fused);
+		scanner.receive(chars, 0, chars.length);
+
+		ParserMetrics layered = new ParserMetrics();
+		Parser parser = new Parser(new FusedScannerTest.Commands());
+		parser.setMetrics(layered);
+		parser.errors = ParseErrorTest.ignore;
+		Tokenizer tokenizer = new Tokenizer(parser);
+		tokenizer.errors = ParseErrorTest.ignore;
+		tokenizer.setMetrics(layered);
+		tokenizer.receive(chars, 0, chars.length);
+
+		// the tokens and errors skipped after a parser error are not counted by either
+		ParserMetrics.Snapshot f = fused.snapshot();
+		ParserMetrics.Snapshot l = layered.snapshot();
+		Assert.assertEquals(l.bytes, f.bytes);
+		Assert.assertEquals(l.tokens, f.tokens);
+		Assert.assertEquals(l.tokenizerErrors, f.tokenizerErrors);
+		for (int i = 0; i < ParserMetrics.TYPES; i++) {
+			Assert.assertEquals(l.commands[i], f.commands[i]);
+		}
+		Assert.assertEquals(l.parserErrors, f.parserErrors);
+		Assert.assertEquals(l.resyncs, f.resyncs);
+		Assert.assertTrue(fused.getParserErrors() > 0);
+		Assert.assertTrue(fused.getResyncs() > 0);
+		Assert.assertTrue(fused.getTokenizerErrors() > 0);
+	}
+
+	/**
+	 * The tokens of a ByteBuffer are flushed at the end of the buffer, like the ones of
+	 * a char[]
+	 */
+	public void testByteBuffer() {
+		ParserMetrics chars = new ParserMetrics();
+		Tokenizer tokenizer = new Tokenizer(new Parser(new FusedScannerTest.Commands()));
+		tokenizer.setMetrics(chars);
+		tokenizer.receive(input.toCharArray(), 0, input.length());
+
+		ParserMetrics bytes = new ParserMetrics();
+		tokenizer = new Tokenizer(new Parser(new FusedScannerTest.Commands()));
+		tokenizer.setMetrics(bytes);
+		tokenizer.receive(ByteBuffer.wrap(input.getBytes(StandardCharsets.US_ASCII)));
+
+		Assert.assertTrue(chars.getTokens() > 0);
+		Assert.assertEquals(chars.getTokens(), bytes.getTokens());
+		Assert.assertEquals(input.length(), bytes.getBytes());
+	}
+
+	/**
+	 * Given a char at a time, the counters are only touched every FLUSH_EVERY chars and
+	 * by flushMetrics()
+	 */
+	public void testPerChar() {
+		ParserMetrics metrics = new ParserMetrics();
+		Parser parser = new Parser(new FusedScannerTest.Commands());
+		parser.setMetrics(metrics);
+		Tokenizer tokenizer = new Tokenizer(parser);
+		tokenizer.setMetrics(metrics);
+		for (char c : input.toCharArray()) {
+			tokenizer.receive((int) c);
+		}
+		Assert.assertEquals(0, metrics.getBytes());
+		Assert.assertEquals(0, metrics.snapshot().commands[ParserMetrics.IDLE]);
+		tokenizer.flushMetrics();
+		Assert.assertEquals(input.length(), metrics.getBytes());
+		Assert.assertEquals(1, metrics.snapshot().commands[ParserMetrics.IDLE]);
+
+		StringBuilder many = new StringBuilder();
+		while (many.length() < ParserMetrics.FLUSH_EVERY) {
+			many.append(input);
+		}
+		for (char c : many.toString().toCharArray()) {
+			tokenizer.receive((int) c);
+		}
+		Assert.assertTrue(metrics.getBytes() > input.length());
+	}
+
+	/**
+	 * The engines are not closed, their accumulators are dropped with them
+	 */
+	public void testAccumulatorsNotKept() throws InterruptedException {
+		ParserMetrics metrics = new ParserMetrics();
+		FusedScanner kept = new FusedScanner(new FusedScannerTest.Commands());
+		kept.setMetrics(metrics);
+		for (int i = 0; i < 100; i++) {
+			new FusedScanner(new FusedScannerTest.Commands()).setMetrics(metrics);
+		}
+		for (int i = 0; i < 50 && metrics.accumulators() > 1; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, metrics.accumulators());
+		Assert.assertNotNull(kept);
+	}
+
+	public void testHistogram() {
+		ParserMetrics.Histogram h = new ParserMetrics.Histogram();
+		Assert.assertEquals(0, h.percentile(50));
+		for (int i = 0; i < 99; i++) {
+			h.record(100);
+		}
+		h.record(5000);
+		Assert.assertEquals(127, h.percentile(50));
+		Assert.assertEquals(127, h.percentile(99));
+		Assert.assertEquals(8191, h.percentile(100));
+	}
+
+	public void testJmx() throws JMException {
+		ParserMetrics metrics = new ParserMetrics();
+		metrics.bytes.add(42);
+		ObjectName name = metrics.register("test");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			Assert.assertEquals(42L, server.getAttribute(name, "Bytes"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package pabx.read;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import pabx.read.Parser.Command;
+import pabx.read.Tokenizer.Token;
+
+/**
+ * ReadFile -> Tokenizer -> CodeParser -> output, each stage on its own thread
+ *
+ * The stages are connected by single producer / single consumer rings: the chunks
+ * read from the file, the token codes (ints, not Token references, with the offsets of
+ * the tokens so the errors have the same offsets as with FusedScanner) and the commands.
+ * The end of the stream goes through the rings as a sentinel so every stage
+ * finishes once it has handled all its input.
+ *
+ * If a stage throws (an Error too), it drains its input without handling it and
+ * sends the end of the stream, so the other stages are not blocked; read() waits for
+ * all the stages and throws the first exception again.
+ */
+class PipelinedReader {
+	static int defaultRingSize = 1 << 14;
+
+	private static final int EOS = -1;
+
+	/**
+	 * A word of the token ring has the code of the token in its low bits and the number
+	 * of chars since the end of the previous word in the others, so the parser knows the
+	 * offsets of the tokens in the stream. ERROR is an unexpected char, the next word
+	 * is the char; GAP only moves the offset, for gaps that do not fit in a word.
+	 */
+	private static final int CODE_BITS = 5;
+	private static final int CODE_MASK = (1 << CODE_BITS) - 1;
+	private static final int ERROR = 30;
+	private static final int GAP = 31;
+	private static final int MAX_GAP = (1 << 31 - CODE_BITS) - 1;
+	private static final char[] EOS_CHUNK = new char[0];
+	private static final Command EOS_COMMAND = new Command();
+
+	private final Input<Command> output;
+	private final int ringSize;
+	private final WaitStrategy wait;
+	private final int bufferSize;
+	private volatile Throwable failure;
+
+	/**
+	 * Errors, called on the parse thread
+	 */
+	Input<ParseError> errors = ErrorReporter.shared;
+
+	PipelinedReader(Input<Command> output) {
+		this(output, defaultRingSize, WaitStrategy.PARK, ReadFile.defaultBufferSize);
+	}
+
+	PipelinedReader(Input<Command> output, int ringSize, WaitStrategy wait, int bufferSize) {
+		this.output = output;
+		this.ringSize = ringSize;
+		this.wait = wait;
+		this.bufferSize = bufferSize;
+	}
+
+	boolean read(String filename) {
+		boolean ret = false;
+		try {
+			read(new BufferedReader(new FileReader(filename), bufferSize));
+			ret = true;
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+		return ret;
+	}
+
+	void read(final Reader reader) {
+		final SpscRing<char[]> chunks = new SpscRing<char[]>(Math.max(2, ringSize / 1024), wait);
+		final IntRing codes = new IntRing(ringSize, wait);
+		final SpscRing<Command> commands = new SpscRing<Command>(ringSize, wait);
+
+		Thread read = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					ReadFile rf = new ReadFile(bufferSize);
+					rf.subscribeChunks(new ChunkInput() {
+						@Override
+						public void receive(char[] chars, int offset, int length) {
+							// ReadFile reuses its buffer
+							chunks.put(Arrays.copyOfRange(chars, offset, offset + length));
+						}
+
+						@Override
+						public void receive(ByteBuffer bytes) {
+							char[] chars = new char[bytes.remaining()];
+							for (int i = 0; i < chars.length; i++) {
+								chars[i] = (char) (bytes.get() & 0xff);
+							}
+							chunks.put(chars);
+						}
+					});
+					rf.read(reader);
+				} catch (Throwable e) {
+					fail(e);
+				} finally {
+					chunks.put(EOS_CHUNK);
+				}
+			}
+		}, "pabx-read");
+
+		Thread tokenize = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final TokenWriter writer = new TokenWriter(codes);
+				Tokenizer tokenizer = new Tokenizer(writer);
+				tokenizer.errors = new Input<ParseError>() {
+					@Override
+					public void receive(ParseError e) {
+						// reported by the parser, unless it skips the char
+						writer.put(ERROR, e.offset);
+						codes.put(e.value);
+					}
+				};
+				writer.tokenizer = tokenizer;
+				char[] chunk = null;
+				try {
+					while ((chunk = chunks.take()) != EOS_CHUNK) {
+						tokenizer.receive(chunk, 0, chunk.length);
+					}
+				} catch (Throwable e) {
+					fail(e);
+				} finally {
+					// the reader must not block on a full ring
+					while (chunk != EOS_CHUNK) {
+						chunk = chunks.take();
+					}
+					codes.put(EOS);
+				}
+			}
+		}, "pabx-tokenize");
+
+		Thread parse = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				CodeParser parser = new CodeParser(new Input<Command>() {
+					@Override
+					public void receive(Command c) {
+						commands.put(c);
+					}
+				});
+				parser.errors = errors;
+				int word = 0;
+				long offset = -1;
+				try {
+					while ((word = codes.take()) != EOS) {
+						int code = word & CODE_MASK;
+						offset += word >>> CODE_BITS;
+						if (code == ERROR) {
+							int c = codes.take();
+							if (!parser.isSkipping()) {
+								ErrorReporter.report(errors, ParseError.Kind.UNEXPECTED_CHARACTER, offset, c);
+							}
+						} else if (code != GAP) {
+							parser.receive(code, offset + 1 - Tokenizer.length(code), offset);
+						}
+					}
+				} catch (Throwable e) {
+					fail(e);
+				} finally {
+					while (word != EOS) {
+						word = codes.take();
+					}
+					commands.put(EOS_COMMAND);
+				}
+			}
+		}, "pabx-parse");
+
+		Thread sink = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Command c = null;
+				try {
+					while ((c = commands.take()) != EOS_COMMAND) {
+						output.receive(c);
+					}
+				} catch (Throwable e) {
+					fail(e);
+				} finally {
+					while (c != EOS_COMMAND) {
+						c = commands.take();
+					}
+				}
+			}
+		}, "pabx-sink");
+
+		Thread[] stages = { read, tokenize, parse, sink };
+		for (Thread stage : stages) {
+			stage.start();
+		}
+		// the stages are using 'reader' and 'output', wait for them even if interrupted
+		boolean interrupted = false;
+		for (Thread stage : stages) {
+			while (stage.isAlive()) {
+				try {
+					stage.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		Throwable failure = this.failure;
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new IllegalStateException(failure);
+		}
+	}
+
+	/**
+	 * Puts the codes of the tokens in the ring, with their offsets
+	 */
+	private static class TokenWriter implements Input<Token> {
+		final IntRing codes;
+		Tokenizer tokenizer;
+		/**
+		 * Offset of the previous word
+		 */
+		private long last = -1;
+
+		TokenWriter(IntRing codes) {
+			this.codes = codes;
+		}
+
+		@Override
+		public void receive(Token t) {
+			put(t.code, tokenizer.position() - 1);
+		}
+
+		void put(int code, long offset) {
+			long gap = offset - last;
+			while (gap > MAX_GAP) {
+				codes.put(MAX_GAP << CODE_BITS | GAP);
+				gap -= MAX_GAP;
+			}
+			codes.put((int) gap << CODE_BITS | code);
+			last = offset;
+		}
+	}
+
+	private synchronized void fail(Throwable e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package pabx.read;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class PipelinedReaderTest extends TestCase {
+
+	private void checkSameCommands(String input, int ringSize, WaitStrategy wait) {
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		new PipelinedReader(commands, ringSize, wait, 100).read(new StringReader(input));
+		Assert.assertEquals(FusedScannerTest.layered(input), commands.output.toString());
+	}
+
+	public void testSampleFile() throws IOException {
+		String input = new String(Files.readAllBytes(Paths.get("a.txt")), StandardCharsets.ISO_8859_1);
+		for (WaitStrategy wait : WaitStrategy.values()) {
+			checkSameCommands(input, 16, wait);
+		}
+	}
+
+	public void testMalformedInput() {
+		Random random = new Random(5);
+		for (int i = 0; i < 10; i++) {
+			checkSameCommands(FusedScannerTest.randomInput(random, 1000, 0.1), 1 << 10, WaitStrategy.PARK);
+		}
+	}
+
+	public void testFailure() {
+		try {
+			new PipelinedReader(new Input<Parser.Command>() {
+				@Override
+				public void receive(Parser.Command c) {
+					throw new IllegalStateException("sink");
+				}
+			}, 4, WaitStrategy.YIELD, 10).read(new StringReader("<CR>I1234<LF><CR>I1235<LF><CR>I1236<LF>"));
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("sink", e.getMessage());
+		}
+	}
+
+	/**
+	 * An Error in a stage does not block the others on full rings
+	 */
+	public void testError() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append("<CR>I1234<LF>");
+		}
+		try {
+			new PipelinedReader(new Input<Parser.Command>() {
+				@Override
+				public void receive(Parser.Command c) {
+					throw new AssertionError("sink");
+				}
+			}, 4, WaitStrategy.YIELD, 10).read(new StringReader(sb.toString()));
+			Assert.fail();
+		} catch (AssertionError e) {
+			Assert.assertEquals("sink", e.getMessage());
+		}
+	}
+
+	/**
+	 * read() returns once all the stages are done, even when interrupted
+	 */
+	public void testInterrupted() throws IOException {
+		String input = new String(Files.readAllBytes(Paths.get("a.txt")), StandardCharsets.ISO_8859_1);
+		Thread.currentThread().interrupt();
+		try {
+			checkSameCommands(input, 16, WaitStrategy.PARK);
+		} finally {
+			Assert.assertTrue(Thread.interrupted());
+		}
+	}
+
+	public void testIntRing() throws InterruptedException {
+		final IntRing ring = new IntRing(8, WaitStrategy.YIELD);
+		final int n = 100000;
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < n; i++) {
+					ring.put(i);
+				}
+			}
+		});
+		producer.start();
+		for (int i = 0; i < n; i++) {
+			Assert.assertEquals(i, ring.take());
+		}
+		producer.join();
+	}
+}
@@ -1,22 +1,108 @@
 package pabx.read;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import javax.management.JMException;
+
 import pabx.GenerateEventStream.Primes;
 import pabx.read.Parser.Command;
 import pabx.read.Parser.Dial;
 
 public class ReadEventStream {
-	
+	/**
+	 * Commands of a shard given to the shared output at once with -shards
+	 */
+	static int shardBatch = 4096;
+
 	/** 
 	 * 
 	 * Verify that the stream is correct (i,e. 'Dialed' numbers are prime)
 	 * 
+	 * usage: ReadEventStream [-mmap] [-fused] [-parallel] [-pipelined] [-shards n] [-metrics] [-save file.bin]
+	 *                        [-follow] [-snapshot file.snap] [file]
+	 *   -mmap      memory map the file instead of reading it through a Reader
+	 *   -fused     use FusedScanner instead of Tokenizer + Parser
+	 *   -parallel  parse chunks of the file on all the cores (ParallelReadFile)
+	 *   -pipelined read, tokenize, parse and print on 4 threads (PipelinedReader)
+	 *   -shards    parse on n threads, the frames are split by source extension (ShardedParser),
+	 *              the commands of different extensions are then printed in any order
+	 *   -metrics   count bytes, tokens, commands and errors (ParserMetrics, also in JMX),
+	 *              printed on stderr at the end
+	 *   -save      also save the commands in the binary format (BinaryCommandWriter)
+	 *   -follow    follow the file as it grows, like "tail -F", until the process is stopped
+	 *              (FollowFile), the position is saved in 'file'.checkpoint to resume from there
+	 *   -snapshot  save the state of the FusedScanner in 'file.snap' every second and at the end
+	 *              (SnapshotWriter), if 'file.snap' exists the parsing starts from its state and position,
+	 *              only for a text file read by a single thread (not with -follow, -parallel,
+	 *              -pipelined, -shards or a '.bin' file), which must be the file of the snapshot
+	 * a file ending with '.bin' is replayed with BinaryCommandReader instead of being parsed
+	 * 
 	 * @param argv
 	 */
-	public static void main(String[] argv){
+	public static void main(String[] argv) throws IOException {
 		
-		final Primes primes = new Primes();
-		ReadFile rf = new ReadFile();
-		Parser p = new Parser(new Input<Command>() {
+		boolean mmap = false;
+		boolean fused = false;
+		boolean parallel = false;
+		boolean pipelined = false;
+		int shards = 0;
+		boolean withMetrics = false;
+		boolean follow = false;
+		String name = "a.txt";
+		String save = null;
+		String snapshot = null;
+		for (int i = 0; i < argv.length; i++) {
+			String arg = argv[i];
+			if (arg.equals("-save")) {
+				save = argv[++i];
+			} else if (arg.equals("-snapshot")) {
+				snapshot = argv[++i];
+				fused = true;
+			} else if (arg.equals("-mmap")) {
+				mmap = true;
+			} else if (arg.equals("-fused")) {
+				fused = true;
+			} else if (arg.equals("-parallel")) {
+				parallel = true;
+			} else if (arg.equals("-metrics")) {
+				withMetrics = true;
+			} else if (arg.equals("-shards")) {
+				shards = Integer.parseInt(argv[++i]);
+			} else if (arg.equals("-pipelined")) {
+				pipelined = true;
+			} else if (arg.equals("-follow")) {
+				follow = true;
+			} else {
+				name = arg;
+			}
+		}
+		if (snapshot != null && (follow || parallel || pipelined || shards > 0 || name.endsWith(".bin"))) {
+			throw new IllegalArgumentException(
+					"-snapshot cannot be used with -follow, -parallel, -pipelined, -shards or a .bin file");
+		}
+		// checked before anything is started, a snapshot of another file is an error
+		ScannerSnapshot restored = null;
+		String fileKey = null;
+		if (snapshot != null) {
+			Path source = Paths.get(name);
+			fileKey = ScannerSnapshot.fileKey(source);
+			if (Files.exists(Paths.get(snapshot))) {
+				restored = ScannerSnapshot.load(Paths.get(snapshot));
+				restored.check(source);
+			}
+		}
+
+		final Primes primes = Primes.shared();
+		// The commands are checked and printed by a CommandPrinter, which writes on its own thread
+		final CommandPrinter printer = CommandPrinter.stdout();
+		Input<Command> output = new Input<Command>() {
 
 			@Override
 			public void receive(Command c) {
@@ -24,18 +110,156 @@ public class ReadEventStream {
 
 					Dial d = (Dial) c;
 					if (d.getDigits().length() > 0) {
-						Integer digits = null;
-						digits = Integer.parseInt(d.getDigits());
+						int digits = Integer.parseInt(d.getDigits());
 						assert (primes.isPrime(digits));
 					}
 				}
-				System.out.println(c.toString());				
+				printer.receive(c);
 			}
-		});
-		
-		Tokenizer t = new Tokenizer(p);		
-		rf.subscribe(t);
-		String name = argv.length == 0  ? "a.txt" : argv[0];
-		rf.read(name);
+		};
+
+		Input<Command> commands = output;
+		BinaryCommandWriter writer = null;
+		if (save != null) {
+			final BinaryCommandWriter w = new BinaryCommandWriter(save);
+			commands = new Input<Command>() {
+				@Override
+				public void receive(Command c) {
+					w.receive(c);
+					output.receive(c);
+				}
+			};
+			writer = w;
+		}
+
+		ChunkInput t;
+		SnapshotWriter snapshotWriter = null;
+		long from = 0;
+		DialAccumulator dialedNumbers;
+		ParserMetrics metrics = withMetrics ? new ParserMetrics() : null;
+		if (fused) {
+			FusedScanner scanner = new FusedScanner(commands);
+			scanner.setMetrics(metrics);
+			t = scanner;
+			dialedNumbers = scanner.dialedNumbers;
+			if (snapshot != null) {
+				if (restored != null) {
+					scanner.restore(restored);
+					from = restored.position;
+				}
+				snapshotWriter = new SnapshotWriter(scanner, Paths.get(snapshot), fileKey);
+				t = snapshotWriter;
+			}
+		} else {
+			Parser parser = new Parser(commands);
+			parser.setMetrics(metrics);
+			Tokenizer tokenizer = new Tokenizer(parser);
+			tokenizer.setMetrics(metrics);
+			t = tokenizer;
+			dialedNumbers = parser.dialedNumbers;
+		}
+		if (metrics != null) {
+			try {
+				metrics.register(name);
+			} catch (JMException e) {
+				e.printStackTrace();
+			}
+		}
+		if (follow) {
+			final FollowFile followFile = new FollowFile(Paths.get(name), t, dialedNumbers, Paths.get(name
+					+ ".checkpoint"));
+			followFile.setIdle(new Runnable() {
+				@Override
+				public void run() {
+					printer.flush();
+				}
+			});
+			followFile.setFlush(new Runnable() {
+				@Override
+				public void run() {
+					printer.drain();
+				}
+			});
+			final BinaryCommandWriter w = writer;
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				@Override
+				public void run() {
+					try {
+						followFile.close();
+						printer.close();
+						if (w != null) {
+							w.close();
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					ErrorReporter.shared.flush();
+				}
+			});
+			followFile.start();
+			return;
+		}
+		// the printer thread must be stopped even if the read fails, or the JVM does not exit
+		try {
+			if (name.endsWith(".bin")) {
+				try (BinaryCommandReader reader = new BinaryCommandReader(name)) {
+					reader.replay(commands);
+				}
+			} else if (shards > 0) {
+				// each shard collects its commands, the shared output is locked once per batch
+				final Input<Command> shared = commands;
+				final BatchInput<Command> locked = new BatchInput<Command>() {
+					@Override
+					public void receive(List<Command> batch) {
+						synchronized (shared) {
+							for (Command c : batch) {
+								shared.receive(c);
+							}
+						}
+					}
+				};
+				final List<Batcher<Command>> batchers = new ArrayList<Batcher<Command>>();
+				new ShardedParser(shards, new IntFunction<Input<Command>>() {
+					@Override
+					public Input<Command> apply(int shard) {
+						Batcher<Command> batcher = new Batcher<Command>(locked, shardBatch);
+						batchers.add(batcher);
+						return batcher;
+					}
+				}).read(name);
+				// the shard threads have stopped
+				for (Batcher<Command> batcher : batchers) {
+					batcher.flush();
+				}
+			} else if (pipelined) {
+				new PipelinedReader(commands).read(name);
+			} else if (parallel) {
+				new ParallelReadFile(commands).read(name);
+			} else if (snapshotWriter != null) {
+				try (RandomAccessFile file = new RandomAccessFile(name, "r")) {
+					MappedReadFile rf = new MappedReadFile();
+					rf.subscribe(t);
+					rf.read(file.getChannel(), from);
+				}
+				snapshotWriter.close();
+			} else if (mmap) {
+				MappedReadFile rf = new MappedReadFile();
+				rf.subscribe(t);
+				rf.read(name);
+			} else {
+				ReadFile rf = new ReadFile();
+				rf.subscribeChunks(t);
+				rf.read(name);
+			}
+		} finally {
+			printer.close();
+			if (writer != null) {
+				writer.close();
+			}
+			ErrorReporter.shared.flush();
+		}
+		if (metrics != null) {
+			System.err.println(metrics.snapshot());
+		}
 	}
 }
@@ -2,8 +2,14 @@ package pabx.read;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -45,6 +51,50 @@ public class ReadEventStreamTest extends TestCase {
 		context.assertIsSatisfied();
 	}
 	
+	private static boolean printerRunning() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("pabx-printer") && thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The printer is closed when the read fails, so the program does not hang
+	 */
+	public void testMainFailure() {
+		for (String[] argv : new String[][] { { "/nonexistent.bin" }, { "-snapshot", "x.snap", "/nonexistent.txt" } }) {
+			try {
+				ReadEventStream.main(argv);
+				Assert.fail();
+			} catch (IOException e) {
+				// expected
+			}
+			Assert.assertFalse(printerRunning());
+		}
+		Assert.assertFalse(new File("x.snap").exists());
+	}
+
+	/**
+	 * A snapshot is only for a text file read by the FusedScanner, the other modes are
+	 * refused before anything is started
+	 */
+	public void testSnapshotModes() throws IOException {
+		for (String[] argv : new String[][] { { "-snapshot", "x.snap", "-follow", "a.txt" },
+				{ "-snapshot", "x.snap", "-parallel", "a.txt" }, { "-snapshot", "x.snap", "-pipelined", "a.txt" },
+				{ "-snapshot", "x.snap", "-shards", "2", "a.txt" }, { "-snapshot", "x.snap", "a.bin" } }) {
+			try {
+				ReadEventStream.main(argv);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			Assert.assertFalse(printerRunning());
+		}
+		Assert.assertFalse(new File("x.snap").exists());
+	}
+
 	public void testTokenizerGoodCR() {
 		Mockery context = new Mockery();
 		@SuppressWarnings("unchecked")
@@ -119,6 +169,90 @@ public class ReadEventStreamTest extends TestCase {
 		
 	}
 	
+	public void testTokenizerChunks() throws UnsupportedEncodingException {
+		Mockery context = new Mockery();
+		@SuppressWarnings("unchecked")
+		final Input<Token> subscriber = context.mock(Input.class);
+
+		Tokenizer t = new Tokenizer(subscriber);
+		context.checking(new Expectations() {
+			{
+				one(subscriber).receive(Tokenizer.cr);
+				one(subscriber).receive(Tokenizer.idle);
+				one(subscriber).receive(Tokenizer.digits[3]);
+				one(subscriber).receive(Tokenizer.digits[1]);
+				one(subscriber).receive(Tokenizer.digits[4]);
+				one(subscriber).receive(Tokenizer.digits[1]);
+				one(subscriber).receive(Tokenizer.lf);
+			}
+		});
+
+		char[] chars = "xx<CR>I3".toCharArray();
+		t.receive(chars, 2, chars.length - 2);
+		t.receive(ByteBuffer.wrap("141<LF>".getBytes("US-ASCII")));
+
+		context.assertIsSatisfied();
+	}
+
+	public void testReadFileChunks() throws UnsupportedEncodingException {
+		final StringBuilder perChar = new StringBuilder();
+		final StringBuilder chunks = new StringBuilder();
+		ReadFile rf = new ReadFile(3);
+		rf.subscribe(new Input<Integer>() {
+			@Override
+			public void receive(Integer c) {
+				perChar.append((char) c.intValue());
+			}
+		});
+		rf.subscribeChunks(new ChunkInput() {
+			@Override
+			public void receive(char[] chars, int offset, int length) {
+				chunks.append(chars, offset, length);
+			}
+
+			@Override
+			public void receive(ByteBuffer bytes) {
+				while (bytes.hasRemaining()) {
+					chunks.append((char) bytes.get());
+				}
+			}
+		});
+
+		String input = "<CR>A12349876<LF><CR>I1234<LF>";
+		rf.read(new StringReader(input));
+		Assert.assertEquals(input, perChar.toString());
+		Assert.assertEquals(input, chunks.toString());
+
+		perChar.setLength(0);
+		chunks.setLength(0);
+		rf.read(Channels.newChannel(new ByteArrayInputStream(input.getBytes("US-ASCII"))));
+		Assert.assertEquals(input, perChar.toString());
+		Assert.assertEquals(input, chunks.toString());
+	}
+
+	public void testMappedReadFileWindows() throws IOException {
+		String input = "<CR>A12349876<LF><CR>C12349876<LF><CR>D12341<LF><CR>D31140<LF><CR>D12342<LF><CR>D1234#<LF><CR>I1234<LF><CR>D3114#<LF>";
+		File file = File.createTempFile("pabx", ".txt");
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(input.getBytes("US-ASCII"));
+		fos.close();
+
+		final StringBuilder output = new StringBuilder();
+		Tokenizer t = new Tokenizer(new Parser(new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				output.append(c.toString()).append(' ');
+			}
+		}));
+		// 7 bytes windows, most commands straddle two windows
+		MappedReadFile rf = new MappedReadFile(7);
+		rf.subscribe(t);
+		Assert.assertTrue(rf.read(file.getPath()));
+
+		Assert.assertEquals("A12349876 C12349876 D123412 I1234 D31140 ", output.toString());
+	}
+
 	public void testParserIdle() {
 		Mockery context = new Mockery();
 		@SuppressWarnings("unchecked")
@@ -249,6 +383,30 @@ public class ReadEventStreamTest extends TestCase {
 		context.assertIsSatisfied();
 	}
 	
+	public void testParserDialLongInterleaved() {
+		final StringBuilder output = new StringBuilder();
+		Tokenizer t = new Tokenizer(new Parser(new Input<Command>() {
+			@Override
+			public void receive(Command c) {
+				output.append(c.toString()).append(' ');
+			}
+		}));
+
+		StringBuilder input = new StringBuilder();
+		String first = "31415926535897";
+		String second = "27182818284590";
+		for (int i = 0; i < first.length(); i++) {
+			input.append("<CR>D1234").append(first.charAt(i)).append("<LF>");
+			input.append("<CR>D0042").append(second.charAt(i)).append("<LF>");
+		}
+		input.append("<CR>D0042#<LF><CR>D1234#<LF><CR>D1234#<LF>");
+		for (char c : input.toString().toCharArray()) {
+			t.receive((int) c);
+		}
+
+		Assert.assertEquals("D  42" + second + " D1234" + first + " D1234 ", output.toString());
+	}
+
 	/**
 	 * The parser parses strings coming from a simple PABX (private phone exchange) with 4 digits extensions. 
 	 * 
@@ -264,7 +422,7 @@ public class ReadEventStreamTest extends TestCase {
 	 * <CR>Dxxxx4<LF>
 	 * <CR>Dxxxx#<LF>
 	 * 
-	 * 'Dial' events from multiple calls can be interleaved, hence the 'map' in Parser to keep track
+	 * 'Dial' events from multiple calls can be interleaved, hence the DialAccumulator in Parser to keep track
 	 * of the digits that have already been transmitted
 	 */
 	public void testParserAndTokenizer() {
@@ -287,6 +445,6 @@ public class ReadEventStreamTest extends TestCase {
 			t.receive(c);
 		}
 		
-		Assert.assertEquals("A12349876 C12349876 D123421 I1234 D31140", output.toString());				
+		Assert.assertEquals("A12349876 C12349876 D123412 I1234 D31140", output.toString());				
 	}
 }
@@ -1,32 +1,73 @@
 package pabx.read;
 
 import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
 import java.util.List;
 
 import pabx.read.Input;
 
 /**
  * Read a file and send its content to the subscribers
- * char by char (from an efficiency point of view that would 
- * probably be better to send line by line)
- * 
+ * chunk by chunk.
+ *
+ * Subscribers registered with subscribe(Input<Integer>) still receive
+ * the content char by char through a CharByChar adapter
+ *
  * @author bpasquereau
  *
  */
 class ReadFile {
-	List<Input<Integer>> subscribers = new LinkedList<Input<Integer>>();
+	static int defaultBufferSize = 64 * 1024;
+
+	List<ChunkInput> subscribers = new ArrayList<ChunkInput>();
+	private final int bufferSize;
+
+	ReadFile() {
+		this(defaultBufferSize);
+	}
+
+	ReadFile(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * Compatibility adapter, sends each char of a chunk to a 'char' subscriber
+	 */
+	static class CharByChar implements ChunkInput {
+		final Input<Integer> subscriber;
+
+		CharByChar(Input<Integer> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void receive(char[] chars, int offset, int length) {
+			for (int i = offset; i < offset + length; i++) {
+				subscriber.receive((int) chars[i]);
+			}
+		}
+
+		@Override
+		public void receive(ByteBuffer bytes) {
+			while (bytes.hasRemaining()) {
+				subscriber.receive(bytes.get() & 0xff);
+			}
+		}
+	}
 
 	boolean read(String filename) {
 		boolean ret = false;
 		FileReader fr;
 		try {
 			fr = new FileReader(filename);
-			BufferedReader reader = new BufferedReader(fr);
+			BufferedReader reader = new BufferedReader(fr, bufferSize);
 			read(reader);
 			ret = true;
 		} catch (FileNotFoundException e) {
@@ -37,22 +78,56 @@ class ReadFile {
 
 	void read(Reader reader) {
 		try {
-			Integer i;
-			do {
-				i = reader.read();
-				if (i >= 0) {
-					for (Input<Integer> subscriber : subscribers) {
-						subscriber.receive(i);
-					}
+			char[] buffer = new char[bufferSize];
+			int n;
+			while ((n = reader.read(buffer)) >= 0) {
+				for (ChunkInput subscriber : subscribers) {
+					subscriber.receive(buffer, 0, n);
 				}
-			} while (i > 0);
+			}
 			reader.close();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Read a file as raw ASCII bytes, without going through a charset decoder
+	 */
+	boolean readBytes(String filename) {
+		boolean ret = false;
+		try {
+			FileInputStream fis = new FileInputStream(filename);
+			read(fis.getChannel());
+			ret = true;
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+		return ret;
+	}
+
+	void read(ReadableByteChannel channel) {
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				for (ChunkInput subscriber : subscribers) {
+					buffer.position(0);
+					subscriber.receive(buffer);
+				}
+				buffer.clear();
+			}
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	void subscribe(Input<Integer> subscriber) {
+		subscribers.add(new CharByChar(subscriber));
+	}
+
+	void subscribeChunks(ChunkInput subscriber) {
 		subscribers.add(subscriber);
 	}
-}
\ No newline at end of file
+}
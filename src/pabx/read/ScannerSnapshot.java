@@ -0,0 +1,207 @@
+package pabx.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * State of a FusedScanner between two chunks (see FusedScanner.snapshot())
+ *
+ * Both state machines, the registers of the frame being parsed (the frame can be cut
+ * anywhere, even in the middle of "<CR>") and the digits dialed without '#' by each
+ * extension. 'position' is the number of chars received by the scanner, restoring the
+ * snapshot and going on from that offset of the stream gives the same commands as if
+ * the scanner had never stopped, so a restart costs the size of the snapshot, not the
+ * length of the trace. 'fileKey' is the key of the file being read (like the checkpoint
+ * of FollowFile), check() refuses to go on in another file or in a file shorter than
+ * 'position'.
+ *
+ * The binary form is a header, the file key, the registers, then for each extension with digits its
+ * number and its digits as ASCII bytes.
+ */
+final class ScannerSnapshot {
+	private static final int MAGIC = 0x50414253;
+	private static final int VERSION = 2;
+
+	final String fileKey;
+	final long position;
+	final int tokenizerState;
+	final int parserState;
+	final int index;
+	final int source;
+	final int destination;
+	final int newDigit;
+	/**
+	 * Digits taken by a '#' of the current frame, null before the '#'
+	 */
+	final String allDigits;
+	final boolean skipping;
+	final long skipStart;
+	/**
+	 * Extensions with digits, and their digits
+	 */
+	final int[] sources;
+	final String[] digits;
+
+	ScannerSnapshot(String fileKey, long position, int tokenizerState, int parserState, int index, int source,
+			int destination, int newDigit, String allDigits, boolean skipping, long skipStart, int[] sources,
+			String[] digits) {
+		this.fileKey = fileKey;
+		this.position = position;
+		this.tokenizerState = tokenizerState;
+		this.parserState = parserState;
+		this.index = index;
+		this.source = source;
+		this.destination = destination;
+		this.newDigit = newDigit;
+		this.allDigits = allDigits;
+		this.skipping = skipping;
+		this.skipStart = skipStart;
+		this.sources = sources;
+		this.digits = digits;
+	}
+
+	/**
+	 * Digits of 'dialedNumbers', the extensions are looked up until all have been found
+	 */
+	static void capture(DialAccumulator dialedNumbers, int[] sources, String[] digits) {
+		int n = 0;
+		for (int source = 0; n < sources.length && source < DialAccumulator.EXTENSIONS; source++) {
+			if (dialedNumbers.contains(source)) {
+				sources[n] = source;
+				digits[n] = dialedNumbers.peek(source);
+				n++;
+			}
+		}
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(fileKey);
+		out.writeLong(position);
+		out.writeByte(tokenizerState);
+		out.writeByte(parserState);
+		out.writeByte(index);
+		out.writeShort(source);
+		out.writeShort(destination);
+		out.writeByte(newDigit);
+		out.writeBoolean(allDigits != null);
+		if (allDigits != null) {
+			writeDigits(out, allDigits);
+		}
+		out.writeBoolean(skipping);
+		out.writeLong(skipStart);
+		out.writeInt(sources.length);
+		for (int i = 0; i < sources.length; i++) {
+			out.writeShort(sources[i]);
+			writeDigits(out, digits[i]);
+		}
+	}
+
+	private static void writeDigits(DataOutputStream out, String digits) throws IOException {
+		out.writeInt(digits.length());
+		out.writeBytes(digits);
+	}
+
+	private static String readDigits(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		char[] chars = new char[bytes.length];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i] = (char) bytes[i];
+		}
+		return new String(chars);
+	}
+
+	static ScannerSnapshot read(DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			throw new IOException("Not a scanner snapshot");
+		}
+		String fileKey = in.readUTF();
+		long position = in.readLong();
+		int tokenizerState = in.readByte();
+		int parserState = in.readByte();
+		int index = in.readByte();
+		int source = in.readShort();
+		int destination = in.readShort();
+		int newDigit = in.readByte();
+		String allDigits = in.readBoolean() ? readDigits(in) : null;
+		boolean skipping = in.readBoolean();
+		long skipStart = in.readLong();
+		int count = in.readInt();
+		int[] sources = new int[count];
+		String[] digits = new String[count];
+		for (int i = 0; i < count; i++) {
+			sources[i] = in.readShort();
+			digits[i] = readDigits(in);
+		}
+		return new ScannerSnapshot(fileKey, position, tokenizerState, parserState, index, source, destination,
+				newDigit, allDigits, skipping, skipStart, sources, digits);
+	}
+
+	/**
+	 * Write the snapshot in a temporary file renamed to 'file', so 'file' is either the
+	 * previous snapshot or this one
+	 */
+	void save(Path file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		write(out);
+		out.flush();
+		replace(file, bytes.toByteArray());
+	}
+
+	/**
+	 * Write 'bytes' in a temporary file, forced to the disk, then renamed to 'file' (also
+	 * used by the checkpoints of FollowFile)
+	 */
+	static void replace(Path file, byte[] bytes) throws IOException {
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer data = ByteBuffer.wrap(bytes);
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			channel.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	static ScannerSnapshot load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			return read(in);
+		}
+	}
+
+	/**
+	 * Key of 'file', as saved in the snapshots
+	 */
+	static String fileKey(Path file) throws IOException {
+		return String.valueOf(Files.readAttributes(file, BasicFileAttributes.class).fileKey());
+	}
+
+	/**
+	 * Fail when 'file' is not the file the snapshot has been taken of: another file, or
+	 * a file shorter than 'position' (replaced or truncated since)
+	 */
+	void check(Path file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		if (!String.valueOf(attributes.fileKey()).equals(fileKey)) {
+			throw new IOException("The snapshot is of another file than " + file);
+		}
+		if (attributes.size() < position) {
+			throw new IOException("The snapshot is at " + position + " but " + file + " has " + attributes.size()
+					+ " bytes");
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package pabx.read;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+public class ScannerSnapshotTest extends TestCase {
+
+	private static byte[] encode(ScannerSnapshot snapshot) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		snapshot.write(out);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static ScannerSnapshot decode(byte[] bytes) throws IOException {
+		return ScannerSnapshot.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	/**
+	 * Stop anywhere, restore in a new scanner and go on: same commands and errors
+	 */
+	private void checkRestart(String input, int cut) throws IOException {
+		char[] chars = input.toCharArray();
+		FusedScannerTest.Commands expected = new FusedScannerTest.Commands();
+		ParseErrorTest.Errors expectedErrors = new ParseErrorTest.Errors();
+		FusedScanner scanner = new FusedScanner(expected);
+		scanner.errors = expectedErrors;
+		scanner.receive(chars, 0, chars.length);
+
+		FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+		ParseErrorTest.Errors errors = new ParseErrorTest.Errors();
+		FusedScanner first = new FusedScanner(commands);
+		first.errors = errors;
+		first.receive(chars, 0, cut);
+		FusedScanner second = new FusedScanner(commands);
+		second.errors = errors;
+		ScannerSnapshot snapshot = decode(encode(first.snapshot("")));
+		Assert.assertEquals(cut, snapshot.position);
+		second.restore(snapshot);
+		second.receive(chars, cut, chars.length - cut);
+
+		Assert.assertEquals(expected.output.toString(), commands.output.toString());
+		Assert.assertEquals(expectedErrors.errors, errors.errors);
+		for (int source = 0; source < DialAccumulator.EXTENSIONS; source++) {
+			Assert.assertEquals(scanner.dialedNumbers.peek(source), second.dialedNumbers.peek(source));
+		}
+	}
+
+	public void testRestart() throws IOException {
+		Random random = new Random(16);
+		for (int n = 0; n < 20; n++) {
+			String input = FusedScannerTest.randomInput(random, 200, n % 2 == 0 ? 0 : 0.2);
+			checkRestart(input, random.nextInt(input.length()));
+		}
+		// in the middle of "<CR>", after the '#' of a Dial
+		String input = "<CR>D12345<LF><CR>D12346<LF><CR>D1234#<LF><CR>I1234<LF>";
+		for (int cut = 0; cut <= input.length(); cut++) {
+			checkRestart(input, cut);
+		}
+	}
+
+	public void testFlyweight() throws IOException {
+		String input = "<CR>D12345<LF><CR>D12346<LF><CR>D1234#<LF><CR>A12345678<LF>";
+		int cut = input.indexOf('#') + 3;
+		final StringBuilder output = new StringBuilder();
+		Input<CommandView> views = new Input<CommandView>() {
+			@Override
+			public void receive(CommandView v) {
+				output.append(v.toString()).append(' ');
+			}
+		};
+		byte[] bytes = input.getBytes(StandardCharsets.US_ASCII);
+		FusedScanner first = FusedScanner.flyweight(views);
+		first.receive(ByteBuffer.wrap(bytes, 0, cut));
+		FusedScanner second = FusedScanner.flyweight(views);
+		second.restore(decode(encode(first.snapshot(""))));
+		second.receive(ByteBuffer.wrap(bytes, cut, bytes.length - cut));
+		Assert.assertEquals("D123456 A12345678 ", output.toString());
+	}
+
+	public void testSnapshotWriter() throws IOException {
+		Path dir = Files.createTempDirectory("pabx-snapshot");
+		Path file = dir.resolve("scanner.snap");
+		try {
+			Random random = new Random(17);
+			String input = FusedScannerTest.randomInput(random, 2000, 0);
+			byte[] bytes = input.getBytes(StandardCharsets.US_ASCII);
+			FusedScanner scanner = new FusedScanner(new FusedScannerTest.Commands());
+			SnapshotWriter writer = new SnapshotWriter(scanner, file, "", 0);
+			int offset = 0;
+			while (offset < bytes.length) {
+				int length = Math.min(bytes.length - offset, 1 + random.nextInt(100));
+				writer.receive(ByteBuffer.wrap(bytes, offset, length));
+				offset += length;
+				long saved = writer.saved();
+				Assert.assertTrue(saved <= offset);
+				if (saved >= 0) {
+					// the file is replaced atomically, never older than the last snapshot written
+					Assert.assertTrue(ScannerSnapshot.load(file).position >= saved);
+				}
+			}
+			writer.close();
+			Assert.assertEquals(bytes.length, writer.saved());
+			ScannerSnapshot snapshot = ScannerSnapshot.load(file);
+			Assert.assertEquals(bytes.length, snapshot.position);
+			Assert.assertEquals(scanner.dialedNumbers.size(), snapshot.sources.length);
+			// a few bytes per extension with digits, whatever the length of the trace
+			Assert.assertTrue(Files.size(file) < 100 + 16 * snapshot.sources.length);
+			Assert.assertFalse(Files.exists(dir.resolve("scanner.snap.tmp")));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(dir.resolve("scanner.snap.tmp"));
+			Files.delete(dir);
+		}
+	}
+
+	private static void checkFails(ScannerSnapshot snapshot, Path file) {
+		try {
+			snapshot.check(file);
+			Assert.fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * A snapshot only goes on in the file it has been taken of, up to its position
+	 */
+	public void testCheck() throws IOException {
+		Path dir = Files.createTempDirectory("pabx-snapshot");
+		Path file = dir.resolve("pabx.log");
+		Path other = dir.resolve("other.log");
+		try {
+			String input = "<CR>D12345<LF><CR>I1234<LF>";
+			Files.write(file, input.getBytes(StandardCharsets.US_ASCII));
+			Files.write(other, input.getBytes(StandardCharsets.US_ASCII));
+			FusedScanner scanner = new FusedScanner(new FusedScannerTest.Commands());
+			char[] chars = input.toCharArray();
+			scanner.receive(chars, 0, chars.length);
+			ScannerSnapshot snapshot = decode(encode(scanner.snapshot(ScannerSnapshot.fileKey(file))));
+			snapshot.check(file);
+			checkFails(snapshot, other);
+
+			// replaced by a shorter trace
+			Files.delete(file);
+			Files.write(file, "<CR>I1234<LF>".getBytes(StandardCharsets.US_ASCII));
+			checkFails(snapshot, file);
+			checkFails(decode(encode(scanner.snapshot(ScannerSnapshot.fileKey(file)))), file);
+		} finally {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(other);
+			Files.delete(dir);
+		}
+	}
+}
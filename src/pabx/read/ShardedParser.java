@@ -0,0 +1,436 @@
+package pabx.read;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+import pabx.read.Parser.Command;
+
+/**
+ * Parse the stream on several threads, split by source extension
+ *
+ * The framer cuts the stream before each "<CR>" and sends the frame to the shard of its
+ * source extension (the 4 chars after "<CR>x"), each shard runs a FusedScanner on its own
+ * thread with its own DialAccumulator. All the frames of an extension go to the same
+ * shard so the commands of an extension come out in the stream order; there is no order
+ * between the extensions. Each shard has its own output, called on the shard thread.
+ *
+ * The framer only looks for the "<CR>" and the source, a frame is copied to the batch
+ * of its shard in one piece. The frames go to a shard by batches of bytes through a
+ * SpscRing, the empty batches come back through a second ring so there is no allocation
+ * once the rings are full, and the framer waits for a batch when a shard is behind.
+ *
+ * The errors have the offsets of the stream: the batches record where their frames
+ * start in the stream.
+ *
+ * On malformed input, a frame without a source goes to shard 0. A broken frame only
+ * disturbs the next frame of its shard, where with a single FusedScanner it would
+ * disturb the frame that follows it in the stream.
+ */
+class ShardedParser implements ChunkInput {
+	static int defaultBatchSize = 64 * 1024;
+	static int batchesPerShard = 4;
+
+	private static final byte[] CR = { '<', 'C', 'R', '>' };
+	/**
+	 * "<CR>xdddd"
+	 */
+	private static final int HEADER = 9;
+
+	static class Batch {
+		final byte[] bytes;
+		int length;
+		/**
+		 * Frames starting in the batch, pairs of offsets of their first byte in the
+		 * shard and in the stream
+		 */
+		long[] marks = new long[32];
+		int markCount;
+
+		Batch(int size) {
+			bytes = new byte[size];
+		}
+
+		void mark(long shardOffset, long streamOffset) {
+			if (2 * markCount == marks.length) {
+				marks = Arrays.copyOf(marks, marks.length * 2);
+			}
+			marks[2 * markCount] = shardOffset;
+			marks[2 * markCount + 1] = streamOffset;
+			markCount++;
+		}
+	}
+
+	private static final Batch EOS = new Batch(0);
+
+	class Shard implements Runnable {
+		final SpscRing<Batch> work;
+		final SpscRing<Batch> free;
+		final FusedScanner scanner;
+		final Thread thread;
+		Batch current;
+		/**
+		 * Bytes sent to the shard
+		 */
+		long received;
+		Throwable failure;
+		/**
+		 * Batch being parsed, and the last frame of the batches before it
+		 */
+		private Batch parsing;
+		private long lastShard;
+		private long lastStream;
+
+		Shard(int index, Input<Command> output, int batchSize, WaitStrategy wait) {
+			work = new SpscRing<Batch>(batchesPerShard, wait);
+			free = new SpscRing<Batch>(batchesPerShard, wait);
+			// filled before the shard thread starts, which then is the only producer
+			for (int i = 1; i < batchesPerShard; i++) {
+				free.put(new Batch(batchSize));
+			}
+			current = new Batch(batchSize);
+			scanner = new FusedScanner(output);
+			scanner.errors = new Input<ParseError>() {
+				@Override
+				public void receive(ParseError e) {
+					errors.receive(new ParseError(e.kind, streamOffset(e.offset), e.value));
+				}
+			};
+			thread = new Thread(this, "pabx-shard-" + index);
+		}
+
+		/**
+		 * The frame starting at 'streamOffset' in the stream starts with the next byte
+		 */
+		void mark(long streamOffset) {
+			if (current.length == current.bytes.length) {
+				send();
+				current = free.take();
+			}
+			current.mark(received, streamOffset);
+		}
+
+		/**
+		 * Offset in the stream of the byte 'offset' of the shard, which is in the batch
+		 * being parsed or in the last frame before it
+		 */
+		long streamOffset(long offset) {
+			for (int i = parsing.markCount - 1; i >= 0; i--) {
+				long shardOffset = parsing.marks[2 * i];
+				if (shardOffset <= offset) {
+					return parsing.marks[2 * i + 1] + offset - shardOffset;
+				}
+			}
+			return lastStream + offset - lastShard;
+		}
+
+		void put(byte b) {
+			if (current.length == current.bytes.length) {
+				send();
+				current = free.take();
+			}
+			current.bytes[current.length++] = b;
+			received++;
+		}
+
+		void put(ByteBuffer bytes, int index, int length) {
+			while (length > 0) {
+				if (current.length == current.bytes.length) {
+					send();
+					current = free.take();
+				}
+				int n = Math.min(length, current.bytes.length - current.length);
+				bytes.get(index, current.bytes, current.length, n);
+				current.length += n;
+				received += n;
+				index += n;
+				length -= n;
+			}
+		}
+
+		void send() {
+			work.put(current);
+		}
+
+		@Override
+		public void run() {
+			Batch batch;
+			while ((batch = work.take()) != EOS) {
+				if (failure == null) {
+					try {
+						parsing = batch;
+						scanner.receive(ByteBuffer.wrap(batch.bytes, 0, batch.length));
+					} catch (Throwable e) {
+						// an Error too, the shard must go on freeing the batches
+						failure = e;
+					}
+				}
+				if (batch.markCount > 0) {
+					lastShard = batch.marks[2 * batch.markCount - 2];
+					lastStream = batch.marks[2 * batch.markCount - 1];
+				}
+				batch.markCount = 0;
+				batch.length = 0;
+				free.put(batch);
+			}
+		}
+	}
+
+	private final Shard[] shards;
+
+	/**
+	 * Errors, called on the shard threads with the offsets in the stream
+	 */
+	Input<ParseError> errors = ErrorReporter.shared;
+
+	/**
+	 * Bytes of the current frame before its shard is known
+	 */
+	private final byte[] header = new byte[HEADER];
+	private int headerLength;
+	private Shard target;
+	/**
+	 * Offset of the byte being framed, and of the first byte of its frame
+	 */
+	private long position;
+	private long frameStart;
+	/**
+	 * Number of chars of "<CR>" matched, not sent yet
+	 */
+	private int match;
+	private byte[] scratch = new byte[0];
+
+	ShardedParser(int shards, IntFunction<Input<Command>> outputs) {
+		this(shards, outputs, defaultBatchSize, WaitStrategy.PARK);
+	}
+
+	ShardedParser(int shards, IntFunction<Input<Command>> outputs, int batchSize, WaitStrategy wait) {
+		if (shards < 1) {
+			throw new IllegalArgumentException("Invalid number of shards " + shards);
+		}
+		this.shards = new Shard[shards];
+		for (int i = 0; i < shards; i++) {
+			this.shards[i] = new Shard(i, outputs.apply(i), batchSize, wait);
+		}
+		for (Shard shard : this.shards) {
+			shard.thread.start();
+		}
+	}
+
+	/**
+	 * Shard of the commands of 'source'
+	 */
+	static int shard(int source, int shards) {
+		return source % shards;
+	}
+
+	/**
+	 * Digits dialed by the extensions of shard 'i', to read after finish()
+	 */
+	DialAccumulator dialedNumbers(int i) {
+		return shards[i].scanner.dialedNumbers;
+	}
+
+	@Override
+	public void receive(char[] chars, int offset, int length) {
+		if (scratch.length < length) {
+			scratch = new byte[length];
+		}
+		for (int i = 0; i < length; i++) {
+			scratch[i] = (byte) chars[offset + i];
+		}
+		frames(ByteBuffer.wrap(scratch, 0, length), 0, length);
+	}
+
+	@Override
+	public void receive(ByteBuffer bytes) {
+		frames(bytes, bytes.position(), bytes.limit());
+		bytes.position(bytes.limit());
+	}
+
+	/**
+	 * Send the frames of bytes[i, end) to their shards
+	 *
+	 * A frame whose "<CR>" and source are in the chunk is routed from the chunk and copied
+	 * to its shard in one piece, up to the next "<CR>". The bytes around the chunk
+	 * boundaries, and the frames without a valid source, go through next() one by one.
+	 */
+	private void frames(ByteBuffer bytes, int i, int end) {
+		while (i < end) {
+			if (match > 0 || target == null) {
+				next(bytes.get(i++));
+				position++;
+				continue;
+			}
+			int frame = nextCR(bytes, i, end);
+			// the last 3 bytes can be the beginning of a "<CR>"
+			int copied = (frame < 0 ? Math.max(i, end - CR.length + 1) : frame) - i;
+			target.put(bytes, i, copied);
+			i += copied;
+			position += copied;
+			if (frame < 0) {
+				while (i < end) {
+					next(bytes.get(i++));
+					position++;
+				}
+			} else if (frame + HEADER <= end && (target = route(bytes, frame)) != null) {
+				// the frame is copied with the next bytes, from its "<CR>"
+				frameStart = position;
+				target.mark(frameStart);
+				copied = nextCR(bytes, frame + CR.length, end);
+				copied = (copied < 0 ? Math.max(frame + HEADER, end - CR.length + 1) : copied) - frame;
+				target.put(bytes, frame, copied);
+				i += copied;
+				position += copied;
+			} else {
+				// the header is not in the chunk or has no source, next() takes over
+				for (int k = 0; k < CR.length; k++) {
+					next(bytes.get(i++));
+					position++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Index of the next "<CR>" in bytes[i, end), -1 when there is none
+	 */
+	private static int nextCR(ByteBuffer bytes, int i, int end) {
+		for (int last = end - CR.length; i <= last; i++) {
+			if (bytes.get(i) == '<' && bytes.get(i + 1) == 'C' && bytes.get(i + 2) == 'R' && bytes.get(i + 3) == '>') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Shard of the frame at 'frame', null when its source is not 4 digits
+	 */
+	private Shard route(ByteBuffer bytes, int frame) {
+		int source = 0;
+		for (int i = frame + HEADER - 4; i < frame + HEADER; i++) {
+			byte b = bytes.get(i);
+			if (b < '0' || b > '9') {
+				return null;
+			}
+			source = source * 10 + b - '0';
+		}
+		return shards[shard(source, shards.length)];
+	}
+
+	private void next(byte b) {
+		if (b == CR[match]) {
+			// keep the beginning of "<CR>" until it is complete
+			match++;
+			if (match == CR.length) {
+				endFrame();
+				frameStart = position + 1 - CR.length;
+				match = 0;
+				System.arraycopy(CR, 0, header, 0, CR.length);
+				headerLength = CR.length;
+			}
+			return;
+		}
+		if (match > 0) {
+			int matched = match;
+			match = 0;
+			for (int i = 0; i < matched; i++) {
+				append(CR[i]);
+			}
+			// 'b' can start a new "<CR>"
+			next(b);
+			return;
+		}
+		append(b);
+	}
+
+	private void append(byte b) {
+		if (target != null) {
+			target.put(b);
+		} else {
+			header[headerLength++] = b;
+			if (headerLength == HEADER) {
+				route();
+			}
+		}
+	}
+
+	/**
+	 * Send the header to the shard of its source
+	 */
+	private void route() {
+		int source = 0;
+		boolean valid = headerLength == HEADER && header[0] == '<';
+		for (int i = HEADER - 4; valid && i < HEADER; i++) {
+			valid = header[i] >= '0' && header[i] <= '9';
+			source = source * 10 + header[i] - '0';
+		}
+		target = shards[valid ? shard(source, shards.length) : 0];
+		target.mark(frameStart);
+		for (int i = 0; i < headerLength; i++) {
+			target.put(header[i]);
+		}
+		headerLength = 0;
+	}
+
+	private void endFrame() {
+		if (target == null && headerLength > 0) {
+			route();
+		}
+		target = null;
+	}
+
+	/**
+	 * Send what is left, wait for the shards to parse everything and stop them
+	 */
+	void finish() {
+		for (int i = 0; i < match; i++) {
+			append(CR[i]);
+		}
+		match = 0;
+		endFrame();
+		for (Shard shard : shards) {
+			if (shard.current.length > 0) {
+				shard.send();
+			}
+			shard.work.put(EOS);
+		}
+		Throwable failure = null;
+		for (Shard shard : shards) {
+			try {
+				shard.thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (failure == null) {
+				failure = shard.failure;
+			}
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new IllegalStateException(failure);
+		}
+	}
+
+	boolean read(String filename) {
+		boolean ret = false;
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			MappedReadFile rf = new MappedReadFile();
+			rf.subscribe(this);
+			rf.read(file.getChannel());
+			ret = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			// the shard threads are stopped whatever happened
+			finish();
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,124 @@
+package pabx.read;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream;
+import pabx.read.Parser.Command;
+import pabx.read.Parser.SourceOnly;
+
+public class ShardedParserTest extends TestCase {
+
+	/**
+	 * Commands grouped by source, in order
+	 */
+	static class BySource implements Input<Command> {
+		final Map<Integer, StringBuilder> commands = new TreeMap<Integer, StringBuilder>();
+
+		@Override
+		public void receive(Command c) {
+			int source = ((SourceOnly) c).source;
+			StringBuilder sb = commands.get(source);
+			if (sb == null) {
+				sb = new StringBuilder();
+				commands.put(source, sb);
+			}
+			sb.append(c.toString()).append(' ');
+		}
+
+		void add(BySource other) {
+			for (Map.Entry<Integer, StringBuilder> e : other.commands.entrySet()) {
+				Assert.assertNull(commands.put(e.getKey(), e.getValue()));
+			}
+		}
+
+		@Override
+		public String toString() {
+			return commands.toString();
+		}
+	}
+
+	private void checkSameCommands(String input, int shards, int batchSize, int chunkSize) {
+		BySource expected = new BySource();
+		ParseErrorTest.Errors expectedErrors = new ParseErrorTest.Errors();
+		FusedScanner scanner = new FusedScanner(expected);
+		scanner.errors = expectedErrors;
+		char[] chars = input.toCharArray();
+		scanner.receive(chars, 0, chars.length);
+
+		final List<BySource> outputs = new ArrayList<BySource>();
+		ShardedParser parser = new ShardedParser(shards, new IntFunction<Input<Command>>() {
+			@Override
+			public Input<Command> apply(int shard) {
+				BySource output = new BySource();
+				outputs.add(output);
+				return output;
+			}
+		}, batchSize, WaitStrategy.PARK);
+		final ParseErrorTest.Errors errors = new ParseErrorTest.Errors();
+		parser.errors = new Input<ParseError>() {
+			@Override
+			public synchronized void receive(ParseError e) {
+				errors.receive(e);
+			}
+		};
+		byte[] bytes = input.getBytes(StandardCharsets.ISO_8859_1);
+		// heap, direct and char chunks
+		for (int offset = 0, n = 0; offset < bytes.length; offset += chunkSize, n++) {
+			int length = Math.min(chunkSize, bytes.length - offset);
+			if (n % 3 == 0) {
+				parser.receive(ByteBuffer.wrap(bytes, offset, length));
+			} else if (n % 3 == 1) {
+				ByteBuffer direct = ByteBuffer.allocateDirect(length);
+				direct.put(bytes, offset, length).flip();
+				parser.receive(direct);
+			} else {
+				parser.receive(input.toCharArray(), offset, length);
+			}
+		}
+		parser.finish();
+
+		BySource all = new BySource();
+		for (BySource output : outputs) {
+			all.add(output);
+		}
+		Assert.assertEquals(expected.toString(), all.toString());
+		// the shards report their errors in any order, at the offsets of the stream
+		Collections.sort(expectedErrors.errors);
+		Collections.sort(errors.errors);
+		Assert.assertEquals(expectedErrors.errors, errors.errors);
+		for (int source = 0; source < DialAccumulator.EXTENSIONS; source++) {
+			Assert.assertEquals(scanner.dialedNumbers.peek(source),
+					parser.dialedNumbers(ShardedParser.shard(source, shards)).peek(source));
+		}
+	}
+
+	public void testShards() {
+		String input = GenerateEventStream.generate(50, 20000, new int[] { 1, 1, 1, 4 });
+		checkSameCommands(input, 1, 1 << 16, 1 << 16);
+		checkSameCommands(input, 3, 64, 7);
+		checkSameCommands(input, 8, 1024, 1000);
+	}
+
+	public void testFrameBoundaries() {
+		// "<CR>" split between chunks, noise before the first frame, truncated last frame
+		checkSameCommands("x<<CR>I1234<LF><CR>D12345<LF><<CR>D1234#<LF><CR>A12345678<LF><CR>I12", 2, 16, 1);
+		checkSameCommands("", 2, 16, 1);
+		// errors that do not spill over the next frame are the same as with a single scanner
+		checkSameCommands("<CR>I12x34<LF><CR>A1001100<LF><CR>D1002#<LF><CR>I1003<LF><CR>I1001<LF>", 3, 16, 5);
+		// frames copied whole, in one chunk or cut anywhere
+		String frames = "<CR>I1234<LF><CR>D12345<LF><<CR>D1234#<LF><CR>A12345678<LF><CR>Ix234<LF><CR>I1002<LF>"
+				+ "<CR>C10012000<LF>";
+		for (int chunkSize = 1; chunkSize <= frames.length(); chunkSize++) {
+			checkSameCommands(frames, 2, 16, chunkSize);
+		}
+	}
+}
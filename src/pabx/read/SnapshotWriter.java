@@ -0,0 +1,119 @@
+package pabx.read;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Input in front of a FusedScanner that saves a ScannerSnapshot of it every
+ * 'intervalMillis', 'fileKey' is the key of the file being read (ScannerSnapshot.fileKey)
+ *
+ * The state is captured between two chunks on the thread that parses, which only
+ * copies the registers and the digits waiting for a '#'; the snapshot is then encoded
+ * and written by the "pabx-snapshot" thread so the parsing does not wait for the disk.
+ * When the previous snapshot is still being written, the next one is skipped.
+ *
+ * close() waits for the writer and saves a last snapshot, at the end of what has been
+ * received.
+ */
+class SnapshotWriter implements ChunkInput, Closeable {
+	static long defaultIntervalMillis = 1000;
+
+	private final FusedScanner scanner;
+	private final Path file;
+	private final String fileKey;
+	private final long interval;
+	private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "pabx-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private final AtomicBoolean writing = new AtomicBoolean();
+	private long next;
+	/**
+	 * Position of the last snapshot written, -1 before the first one
+	 */
+	private volatile long saved = -1;
+	private volatile IOException failure;
+
+	SnapshotWriter(FusedScanner scanner, Path file, String fileKey) {
+		this(scanner, file, fileKey, defaultIntervalMillis);
+	}
+
+	SnapshotWriter(FusedScanner scanner, Path file, String fileKey, long intervalMillis) {
+		this.scanner = scanner;
+		this.file = file;
+		this.fileKey = fileKey;
+		interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		next = System.nanoTime() + interval;
+	}
+
+	@Override
+	public void receive(char[] chars, int offset, int length) {
+		scanner.receive(chars, offset, length);
+		if (System.nanoTime() - next >= 0) {
+			snapshot();
+		}
+	}
+
+	@Override
+	public void receive(ByteBuffer bytes) {
+		scanner.receive(bytes);
+		if (System.nanoTime() - next >= 0) {
+			snapshot();
+		}
+	}
+
+	/**
+	 * Capture the state now and write it in the background, unless a snapshot is
+	 * being written
+	 */
+	void snapshot() {
+		next = System.nanoTime() + interval;
+		if (writing.compareAndSet(false, true)) {
+			final ScannerSnapshot snapshot = scanner.snapshot(fileKey);
+			writer.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						snapshot.save(file);
+						saved = snapshot.position;
+					} catch (IOException e) {
+						failure = e;
+					} finally {
+						writing.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	long saved() {
+		return saved;
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.shutdown();
+		try {
+			writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		ScannerSnapshot snapshot = scanner.snapshot(fileKey);
+		snapshot.save(file);
+		saved = snapshot.position;
+	}
+}
@@ -0,0 +1,264 @@
+package pabx.read;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pabx.read.Parser.Command;
+
+/**
+ * Receive the <CR>...<LF> protocol from live PABX connections
+ *
+ * A selector thread accepts the connections and reads them into direct buffers,
+ * each connection has its own FusedScanner. The commands of a connection are
+ * queued and delivered, in order, to the Input<Command> of the connection by a
+ * thread of the delivery pool as soon as they are parsed.
+ *
+ * Backpressure: when more than 'highWater' commands of a connection are waiting
+ * for its consumer, the connection is not read anymore until the consumer gets
+ * back under 'lowWater', TCP flow control then slows down the sender.
+ */
+class SocketFeed implements Runnable, Closeable {
+	static int defaultBufferSize = 64 * 1024;
+	static int defaultHighWater = 64 * 1024;
+
+	/**
+	 * Interface to implement by the services which want to be told about the connections
+	 */
+	interface Listener {
+		/**
+		 * A connection has been accepted, returns the input for its commands
+		 */
+		Input<Command> connected(SocketAddress remote);
+
+		/**
+		 * The connection is closed and all its commands have been delivered
+		 */
+		void disconnected(SocketAddress remote);
+	}
+
+	private final Listener listener;
+	private final ExecutorService delivery;
+	private final boolean ownDelivery;
+	private final int bufferSize;
+	private final int highWater;
+	private final int lowWater;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final Queue<Connection> resumed = new ConcurrentLinkedQueue<Connection>();
+	private volatile boolean running = true;
+	private Thread thread;
+
+	SocketFeed(InetSocketAddress address, Listener listener) throws IOException {
+		this(address, listener, Executors.newCachedThreadPool(), true, defaultBufferSize, defaultHighWater);
+	}
+
+	SocketFeed(InetSocketAddress address, Listener listener, ExecutorService delivery, int bufferSize,
+			int highWater) throws IOException {
+		this(address, listener, delivery, false, bufferSize, highWater);
+	}
+
+	private SocketFeed(InetSocketAddress address, Listener listener, ExecutorService delivery,
+			boolean ownDelivery, int bufferSize, int highWater) throws IOException {
+		this.listener = listener;
+		this.delivery = delivery;
+		this.ownDelivery = ownDelivery;
+		this.bufferSize = bufferSize;
+		this.highWater = highWater;
+		this.lowWater = highWater / 2;
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	InetSocketAddress getLocalAddress() throws IOException {
+		return (InetSocketAddress) server.getLocalAddress();
+	}
+
+	void start() {
+		thread = new Thread(this, "pabx-feed");
+		thread.start();
+	}
+
+	/**
+	 * State of a connection
+	 */
+	class Connection implements Input<Command>, Runnable {
+		final SocketChannel channel;
+		final SocketAddress remote;
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+		final FusedScanner scanner = new FusedScanner(this);
+		final Input<Command> consumer;
+		final Queue<Command> queue = new ConcurrentLinkedQueue<Command>();
+		final AtomicInteger pending = new AtomicInteger();
+		final AtomicBoolean scheduled = new AtomicBoolean();
+		final AtomicBoolean resumeRequested = new AtomicBoolean();
+		SelectionKey key;
+		volatile boolean paused;
+		volatile boolean eof;
+		private boolean disconnected;
+
+		Connection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			remote = channel.getRemoteAddress();
+			consumer = listener.connected(remote);
+		}
+
+		/**
+		 * Commands parsed by the scanner, on the selector thread
+		 */
+		@Override
+		public void receive(Command c) {
+			queue.add(c);
+			pending.incrementAndGet();
+		}
+
+		/**
+		 * Read what is available, on the selector thread
+		 */
+		void read() throws IOException {
+			int n = channel.read(buffer);
+			if (n < 0) {
+				key.cancel();
+				channel.close();
+				eof = true;
+			} else {
+				buffer.flip();
+				scanner.receive(buffer);
+				buffer.clear();
+				if (pending.get() >= highWater) {
+					key.interestOps(0);
+					paused = true;
+					// the consumer may have caught up before 'paused' was set
+					if (pending.get() <= lowWater) {
+						resume();
+					}
+				}
+			}
+			schedule();
+		}
+
+		void resume() {
+			paused = false;
+			if (key.isValid()) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				delivery.execute(this);
+			}
+		}
+
+		/**
+		 * Deliver the queued commands, on a delivery thread
+		 */
+		@Override
+		public void run() {
+			do {
+				Command c;
+				while ((c = queue.poll()) != null) {
+					consumer.receive(c);
+					if (pending.decrementAndGet() <= lowWater && paused && resumeRequested.compareAndSet(false, true)) {
+						resumed.add(this);
+						selector.wakeup();
+					}
+				}
+				scheduled.set(false);
+			} while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+			if (eof && queue.isEmpty()) {
+				synchronized (this) {
+					if (!disconnected) {
+						disconnected = true;
+						listener.disconnected(remote);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				Connection c;
+				while ((c = resumed.poll()) != null) {
+					c.resumeRequested.set(false);
+					if (c.paused && c.pending.get() <= lowWater) {
+						c.resume();
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else if (key.isReadable()) {
+						Connection connection = (Connection) key.attachment();
+						try {
+							connection.read();
+						} catch (IOException e) {
+							e.printStackTrace();
+							key.cancel();
+							connection.channel.close();
+							connection.eof = true;
+							connection.schedule();
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = server.accept()) != null) {
+			channel.configureBlocking(false);
+			Connection connection = new Connection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		if (thread != null) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+		if (ownDelivery) {
+			delivery.shutdown();
+		}
+	}
+}
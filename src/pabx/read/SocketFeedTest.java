@@ -0,0 +1,107 @@
+package pabx.read;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.GenerateEventStream;
+import pabx.read.Parser.Command;
+
+public class SocketFeedTest extends TestCase {
+
+	/**
+	 * Stand-in for an exchange, replays a generated stream in random sized writes
+	 */
+	static class Exchange extends Thread {
+		final InetSocketAddress address;
+		final byte[] stream;
+		final Random random;
+
+		Exchange(InetSocketAddress address, String stream, long seed) {
+			this.address = address;
+			this.stream = stream.getBytes(StandardCharsets.US_ASCII);
+			random = new Random(seed);
+		}
+
+		@Override
+		public void run() {
+			try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+				OutputStream out = socket.getOutputStream();
+				int offset = 0;
+				while (offset < stream.length) {
+					int length = Math.min(stream.length - offset, 1 + random.nextInt(500));
+					out.write(stream, offset, length);
+					offset += length;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public void testSlowConsumers() throws IOException, InterruptedException {
+		final int exchanges = 4;
+		final ConcurrentHashMap<SocketAddress, FusedScannerTest.Commands> received = new ConcurrentHashMap<SocketAddress, FusedScannerTest.Commands>();
+		final CountDownLatch done = new CountDownLatch(exchanges);
+		SocketFeed.Listener listener = new SocketFeed.Listener() {
+			@Override
+			public Input<Command> connected(SocketAddress remote) {
+				final FusedScannerTest.Commands commands = new FusedScannerTest.Commands();
+				received.put(remote, commands);
+				return new Input<Command>() {
+					int count;
+
+					@Override
+					public void receive(Command c) {
+						// slow consumer so that the connections get paused
+						if (++count % 500 == 0) {
+							try {
+								Thread.sleep(1);
+							} catch (InterruptedException e) {
+								Thread.currentThread().interrupt();
+							}
+						}
+						commands.receive(c);
+					}
+				};
+			}
+
+			@Override
+			public void disconnected(SocketAddress remote) {
+				done.countDown();
+			}
+		};
+
+		ExecutorService delivery = Executors.newFixedThreadPool(2);
+		SocketFeed feed = new SocketFeed(new InetSocketAddress("127.0.0.1", 0), listener, delivery, 1024, 64);
+		feed.start();
+
+		String stream = GenerateEventStream.generate(20, 20000, new int[] { 1, 1, 1, 4 });
+		FusedScannerTest.Commands expected = new FusedScannerTest.Commands();
+		char[] chars = stream.toCharArray();
+		new FusedScanner(expected).receive(chars, 0, chars.length);
+
+		for (int i = 0; i < exchanges; i++) {
+			new Exchange(feed.getLocalAddress(), stream, i).start();
+		}
+		Assert.assertTrue(done.await(60, TimeUnit.SECONDS));
+		feed.close();
+		delivery.shutdown();
+
+		Assert.assertEquals(exchanges, received.size());
+		for (FusedScannerTest.Commands commands : received.values()) {
+			Assert.assertEquals(expected.output.toString(), commands.output.toString());
+		}
+	}
+}
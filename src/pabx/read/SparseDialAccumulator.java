@@ -0,0 +1,185 @@
+package pabx.read;
+
+import java.util.Arrays;
+
+/**
+ * DialAccumulator for the engines that keep many of them (Demultiplexer)
+ *
+ * Only the extensions with digits waiting for a '#' are kept, in a small open
+ * addressing table (linear probing, the entries are shifted back on removal), so an
+ * accumulator takes a few bytes per number being dialed instead of the flat arrays
+ * for all the extensions. The table is allocated on the first digit and trim()
+ * releases it once all the numbers have been dialed.
+ */
+class SparseDialAccumulator extends DialAccumulator {
+	private static final int INITIAL_CAPACITY = 8;
+
+	/**
+	 * source + 1, 0 for a free entry
+	 */
+	private int[] keys;
+	private char[][] digits;
+	private int[] lengths;
+	private int size;
+
+	private static int hash(int source) {
+		return source * 0x9E3779B9 >>> 16;
+	}
+
+	/**
+	 * Entry of 'source', -1 if it has no digits
+	 */
+	private int find(int source) {
+		if (keys == null) {
+			return -1;
+		}
+		int mask = keys.length - 1;
+		for (int i = hash(source) & mask;; i = (i + 1) & mask) {
+			if (keys[i] == source + 1) {
+				return i;
+			}
+			if (keys[i] == 0) {
+				return -1;
+			}
+		}
+	}
+
+	@Override
+	void append(int source, int digit) {
+		int i = find(source);
+		if (i < 0) {
+			if (keys == null) {
+				allocate(INITIAL_CAPACITY);
+			} else if (2 * (size + 1) > keys.length) {
+				grow();
+			}
+			int mask = keys.length - 1;
+			i = hash(source) & mask;
+			while (keys[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			keys[i] = source + 1;
+			digits[i] = new char[8];
+			size++;
+		} else if (lengths[i] == digits[i].length) {
+			digits[i] = Arrays.copyOf(digits[i], lengths[i] * 2);
+		}
+		digits[i][lengths[i]++] = (char) ('0' + digit);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		digits = new char[capacity][];
+		lengths = new int[capacity];
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		char[][] oldDigits = digits;
+		int[] oldLengths = lengths;
+		allocate(keys.length * 2);
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] != 0) {
+				int i = hash(oldKeys[j] - 1) & mask;
+				while (keys[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				digits[i] = oldDigits[j];
+				lengths[i] = oldLengths[j];
+			}
+		}
+	}
+
+	/**
+	 * Free entry 'i', the entries after it that would not be found any more are
+	 * shifted back
+	 */
+	private void remove(int i) {
+		int mask = keys.length - 1;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (keys[j] == 0) {
+				break;
+			}
+			int h = hash(keys[j] - 1) & mask;
+			// the entry stays where it is if its home is cyclically in (i, j]
+			if (i <= j ? (i < h && h <= j) : (i < h || h <= j)) {
+				continue;
+			}
+			keys[i] = keys[j];
+			digits[i] = digits[j];
+			lengths[i] = lengths[j];
+			i = j;
+		}
+		keys[i] = 0;
+		digits[i] = null;
+		lengths[i] = 0;
+		size--;
+	}
+
+	@Override
+	boolean contains(int source) {
+		return find(source) >= 0;
+	}
+
+	@Override
+	int length(int source) {
+		int i = find(source);
+		return i < 0 ? 0 : lengths[i];
+	}
+
+	@Override
+	String peek(int source) {
+		int i = find(source);
+		return i < 0 ? "" : new String(digits[i], 0, lengths[i]);
+	}
+
+	@Override
+	String take(int source) {
+		int i = find(source);
+		String ret = "";
+		if (i >= 0) {
+			ret = new String(digits[i], 0, lengths[i]);
+			remove(i);
+		}
+		return ret;
+	}
+
+	@Override
+	int take(int source, char[] into) {
+		int i = find(source);
+		int length = 0;
+		if (i >= 0) {
+			length = lengths[i];
+			System.arraycopy(digits[i], 0, into, 0, length);
+			remove(i);
+		}
+		return length;
+	}
+
+	@Override
+	int size() {
+		return size;
+	}
+
+	@Override
+	void clear() {
+		size = 0;
+		trim();
+	}
+
+	/**
+	 * Release the table when no number is being dialed
+	 */
+	@Override
+	void trim() {
+		if (size == 0) {
+			keys = null;
+			digits = null;
+			lengths = null;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package pabx.read;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded ring of references between one producer thread and one consumer thread,
+ * same algorithm as IntRing
+ */
+class SpscRing<T> {
+	private final Object[] buffer;
+	private final int mask;
+	private final WaitStrategy wait;
+
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Producer side
+	 */
+	private long nextTail;
+	private long cachedHead;
+
+	/**
+	 * Consumer side
+	 */
+	private long nextHead;
+	private long cachedTail;
+
+	SpscRing(int capacity, WaitStrategy wait) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}
+		buffer = new Object[capacity];
+		mask = capacity - 1;
+		this.wait = wait;
+	}
+
+	void put(T v) {
+		long t = nextTail;
+		int spins = 0;
+		while (t - cachedHead > mask) {
+			cachedHead = head.get();
+			if (t - cachedHead > mask) {
+				wait.idle(spins++);
+			}
+		}
+		buffer[(int) t & mask] = v;
+		nextTail = t + 1;
+		tail.lazySet(t + 1);
+	}
+
+	@SuppressWarnings("unchecked")
+	T take() {
+		long h = nextHead;
+		int spins = 0;
+		while (h == cachedTail) {
+			cachedTail = tail.get();
+			if (h == cachedTail) {
+				wait.idle(spins++);
+			}
+		}
+		int index = (int) h & mask;
+		T v = (T) buffer[index];
+		// the consumer does not keep the reference alive
+		buffer[index] = null;
+		nextHead = h + 1;
+		head.lazySet(h + 1);
+		return v;
+	}
+}
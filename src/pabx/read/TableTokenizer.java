@@ -0,0 +1,159 @@
+package pabx.read;
+
+import java.nio.ByteBuffer;
+
+import pabx.read.Tokenizer.Token;
+
+/**
+ * Table driven version of Tokenizer
+ *
+ * The grammar is the same as the one of Tokenizer but it is encoded in a
+ * static transition table indexed by (state, ASCII char), the state is
+ * an 'int' and the tokens sent are the singletons defined in Tokenizer
+ * so nothing is allocated per char.
+ */
+class TableTokenizer implements Input<Integer>, ChunkInput {
+	/**
+	 * States, they match the State classes of Tokenizer
+	 */
+	static final int INITIAL = 0;
+	static final int LT = 1;
+	static final int CR_C = 2;
+	static final int CR_R = 3;
+	static final int LF_L = 4;
+	static final int LF_F = 5;
+	static final int STATES = 6;
+
+	/**
+	 * A table entry contains the next state (bits 0-2), an error flag (bit 3)
+	 * and the code + 1 of the token to send (bits 4-8, 0 when there is none)
+	 */
+	static final int STATE_MASK = 0x7;
+	static final int ERROR = 0x8;
+	static final int TOKEN_SHIFT = 4;
+
+	static final int[] table = new int[STATES * 128];
+	static {
+		// Unexpected chars leave the state machine in the same state
+		for (int s = 0; s < STATES; s++) {
+			for (int c = 0; c < 128; c++) {
+				table[s << 7 | c] = s | ERROR;
+			}
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			set(INITIAL, c, INITIAL, c - '0');
+		}
+		set(INITIAL, 'A', INITIAL, Tokenizer.CODE_ATTEMPT);
+		set(INITIAL, 'C', INITIAL, Tokenizer.CODE_CONNECT);
+		set(INITIAL, 'I', INITIAL, Tokenizer.CODE_IDLE);
+		set(INITIAL, 'D', INITIAL, Tokenizer.CODE_DIAL);
+		set(INITIAL, '#', INITIAL, Tokenizer.CODE_SHARP);
+		set(INITIAL, '<', LT, -1);
+		set(LT, 'C', CR_C, -1);
+		set(LT, 'L', LF_L, -1);
+		set(CR_C, 'R', CR_R, -1);
+		set(CR_R, '>', INITIAL, Tokenizer.CODE_CR);
+		set(LF_L, 'F', LF_F, -1);
+		set(LF_F, '>', INITIAL, Tokenizer.CODE_LF);
+	}
+
+	private static void set(int state, char c, int next, int code) {
+		table[state << 7 | c] = next | (code + 1) << TOKEN_SHIFT;
+	}
+
+	/**
+	 * Table lookup, chars outside of ASCII are unexpected
+	 */
+	static int entry(int state, char c) {
+		return c < 128 ? table[state << 7 | c] : state | ERROR;
+	}
+
+	Input<Token> p;
+	private final TokenParser parser;
+	int state = INITIAL;
+
+	/**
+	 * Errors, with the offset of the char in the stream (a TokenParser gets the offsets of
+	 * the tokens, see Tokenizer.errors)
+	 */
+	Input<ParseError> errors = ErrorReporter.shared;
+	private long position;
+
+	TableTokenizer(Input<Token> p) {
+		this.p = p;
+		parser = p instanceof TokenParser ? (TokenParser) p : null;
+	}
+
+	@Override
+	public void receive(Integer c) {
+		if (c != null) {
+			state = next(state, (char) c.intValue());
+		}
+	}
+
+	@Override
+	public void receive(char[] chars, int offset, int length) {
+		int s = state;
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			if (s == INITIAL && parser != null && parser.isSkipping()) {
+				// the parser waits for a "<CR>", skip ahead to the next '<'
+				int j = i;
+				while (j < end && chars[j] != '<') {
+					j++;
+				}
+				position += j - i;
+				i = j;
+				if (i == end) {
+					break;
+				}
+			}
+			s = next(s, chars[i]);
+		}
+		state = s;
+		if (parser != null) {
+			parser.flushMetrics();
+		}
+	}
+
+	@Override
+	public void receive(ByteBuffer bytes) {
+		int s = state;
+		int end = bytes.limit();
+		for (int i = bytes.position(); i < end; i++) {
+			if (s == INITIAL && parser != null && parser.isSkipping()) {
+				int j = i;
+				while (j < end && bytes.get(j) != '<') {
+					j++;
+				}
+				position += j - i;
+				i = j;
+				if (i == end) {
+					break;
+				}
+			}
+			s = next(s, (char) (bytes.get(i) & 0xff));
+		}
+		bytes.position(end);
+		state = s;
+		if (parser != null) {
+			parser.flushMetrics();
+		}
+	}
+
+	private int next(int s, char c) {
+		int e = entry(s, c);
+		int token = e >>> TOKEN_SHIFT;
+		if (token != 0) {
+			if (parser != null) {
+				parser.receive(token - 1, position + 1 - Tokenizer.length(token - 1), position);
+			} else {
+				p.receive(Tokenizer.tokens[token - 1]);
+			}
+		} else if ((e & ERROR) != 0 && !(parser != null && parser.isSkipping())) {
+			ErrorReporter.report(errors, ParseError.Kind.UNEXPECTED_CHARACTER, position, c);
+		}
+		position++;
+		return e & STATE_MASK;
+	}
+}
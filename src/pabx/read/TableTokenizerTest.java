@@ -0,0 +1,77 @@
+package pabx.read;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+import pabx.read.Tokenizer.Token;
+
+public class TableTokenizerTest extends TestCase {
+
+	static class Tokens implements Input<Token> {
+		List<Token> tokens = new ArrayList<Token>();
+
+		@Override
+		public void receive(Token t) {
+			tokens.add(t);
+		}
+	}
+
+	/**
+	 * Send the same input to both tokenizers and check the tokens are the same
+	 */
+	private void checkSameTokens(String input) {
+		Tokens expected = new Tokens();
+		Tokenizer t = new Tokenizer(expected);
+		for (char c : input.toCharArray()) {
+			t.receive((int) c);
+		}
+
+		Tokens perChar = new Tokens();
+		TableTokenizer tt = new TableTokenizer(perChar);
+		for (char c : input.toCharArray()) {
+			tt.receive((int) c);
+		}
+		Assert.assertEquals(expected.tokens, perChar.tokens);
+
+		Tokens chunks = new Tokens();
+		tt = new TableTokenizer(chunks);
+		char[] chars = input.toCharArray();
+		int half = chars.length / 2;
+		tt.receive(chars, 0, half);
+		tt.receive(chars, half, chars.length - half);
+		Assert.assertEquals(expected.tokens, chunks.tokens);
+
+		Tokens bytes = new Tokens();
+		tt = new TableTokenizer(bytes);
+		tt.receive(ByteBuffer.wrap(input.getBytes(StandardCharsets.ISO_8859_1)));
+		Assert.assertEquals(expected.tokens, bytes.tokens);
+	}
+
+	public void testAllTokens() {
+		checkSameTokens("<CR><LF>0123456789ACID#");
+	}
+
+	public void testSampleFile() throws IOException {
+		checkSameTokens(new String(Files.readAllBytes(Paths.get("a.txt")), StandardCharsets.ISO_8859_1));
+	}
+
+	public void testMalformedInput() {
+		String alphabet = "<>CRLF0123456789AID#xé";
+		Random random = new Random(42);
+		for (int n = 0; n < 20; n++) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < 200; i++) {
+				sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			checkSameTokens(sb.toString());
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package pabx.read;
+
+/**
+ * Parser that takes the tokens with their offsets in the stream (Parser, CodeParser)
+ *
+ * A tokenizer feeding a TokenParser gives it the offsets of the tokens, so the errors
+ * have the offsets of the stream, and leaves out the chars the parser skips after an
+ * unexpected token: they are neither reported nor counted (see ParseError.Kind.SKIPPED).
+ */
+interface TokenParser {
+	/**
+	 * The token 'code' is made of the chars 'start' to 'end' (included) of the stream
+	 */
+	void receive(int code, long start, long end);
+
+	/**
+	 * true while the tokens are skipped after an unexpected token, up to the next "<CR>"
+	 */
+	boolean isSkipping();
+
+	/**
+	 * Publish the metrics counted so far, called at the end of each chunk
+	 */
+	void flushMetrics();
+}
@@ -1,11 +1,16 @@
 package pabx.read;
 
+import java.nio.ByteBuffer;
+
 import pabx.read.Input;
 
 /**
  * Convert 'char' stream to 'Token' stream
+ *
+ * The chars can be received one by one (Input<Integer>) or
+ * by chunks (ChunkInput)
  */
-class Tokenizer implements Input<Integer> {
+class Tokenizer implements Input<Integer>, ChunkInput {
 	/**
 	 * States definitions for the tokenizer
 	 */
@@ -22,13 +27,24 @@ class Tokenizer implements Input<Integer> {
 			State ret = this;
 			token = null;
 			if (i != null) {
-				char c = (char) i.intValue();
-				State ns = nextState(c);
-				if (ns == null) {
-					System.err.println("Unexpected character " + c);
-				} else {
-					ret = ns;
+				ret = next((char) i.intValue());
+			}
+			return ret;
+		}
+
+		State next(char c) {
+			State ret = this;
+			token = null;
+			State ns = nextState(c);
+			if (ns == null) {
+				if (!skipped()) {
+					if (probe != null) {
+						probe.tokenizerError();
+					}
+					ErrorReporter.report(errors, ParseError.Kind.UNEXPECTED_CHARACTER, position, c);
 				}
+			} else {
+				ret = ns;
 			}
 			return ret;
 		}
@@ -149,16 +165,45 @@ class Tokenizer implements Input<Integer> {
 	/**
 	 * Token definitions for output stream
 	 * 
+	 * Each token has a small integer code, digits use their value as code
+	 * so that the primitive engines (TableTokenizer...) can use them as indexes
+	 */
+	static final int CODE_ATTEMPT = 10;
+	static final int CODE_CONNECT = 11;
+	static final int CODE_IDLE = 12;
+	static final int CODE_DIAL = 13;
+	static final int CODE_SHARP = 14;
+	static final int CODE_CR = 15;
+	static final int CODE_LF = 16;
+	static final int CODES = 17;
+
+	/**
+	 * Number of chars of the token 'code'
 	 */
+	static int length(int code) {
+		return code == CODE_CR || code == CODE_LF ? 4 : 1;
+	}
+
 	static class Token {
+		final int code;
+
+		Token(int code) {
+			this.code = code;
+		}
 	}
 
 	static class CR extends Token {
+		CR() {
+			super(CODE_CR);
+		}
 	}
 
 	static CR cr = new CR();
 
 	static class LF extends Token {
+		LF() {
+			super(CODE_LF);
+		}
 	}
 
 	static LF lf = new LF();
@@ -167,6 +212,7 @@ class Tokenizer implements Input<Integer> {
 		final int d;
 
 		Digit(int d) {
+			super(d);
 			this.d = d;
 		}
 	}
@@ -179,43 +225,196 @@ class Tokenizer implements Input<Integer> {
 	}
 
 	static class Connect extends Token {
+		Connect() {
+			super(CODE_CONNECT);
+		}
 	}
 
 	static Connect connect = new Connect();
 
 	static class Attempt extends Token {
+		Attempt() {
+			super(CODE_ATTEMPT);
+		}
 	}
 
 	static Attempt attempt = new Attempt();
 
 	static class Dial extends Token {
+		Dial() {
+			super(CODE_DIAL);
+		}
 	}
 
 	static Dial dial = new Dial();
 
 	static class Idle extends Token {
+		Idle() {
+			super(CODE_IDLE);
+		}
 	}
 
 	static Idle idle = new Idle();
 
 	static class Sharp extends Token {
+		Sharp() {
+			super(CODE_SHARP);
+		}
 	}
 
 	static Sharp sharp = new Sharp();
 
+	/**
+	 * Singleton tokens indexed by their code
+	 */
+	static Token[] tokens = new Token[CODES];
+	static {
+		for (Digit d : digits) {
+			tokens[d.code] = d;
+		}
+		for (Token t : new Token[] { attempt, connect, idle, dial, sharp, cr, lf }) {
+			tokens[t.code] = t;
+		}
+	}
+
+	/**
+	 * Errors, with the offset of the char in the stream
+	 *
+	 * When 'p' is a TokenParser, it receives the tokens with their offsets in the stream,
+	 * and the chars it skips after an unexpected token are neither reported nor counted,
+	 * as with FusedScanner (see ParseError.Kind.SKIPPED); the chunks are skipped ahead to
+	 * the next '<' without going through the state machine.
+	 */
+	Input<ParseError> errors = ErrorReporter.shared;
+	private long position;
+
+	private ParserMetrics.Probe probe;
+
+	private final TokenParser parser;
+
 	Tokenizer(Input<Token> p) {
 		this.p = p;
+		parser = p instanceof TokenParser ? (TokenParser) p : null;
+	}
+
+	/**
+	 * Count the bytes, tokens and errors in 'metrics', null to stop
+	 */
+	void setMetrics(ParserMetrics metrics) {
+		probe = metrics == null ? null : metrics.probe(null);
+	}
+
+	/**
+	 * Publish the metrics counted so far, at the end of a stream given a char at a time
+	 */
+	void flushMetrics() {
+		flushMetrics(0);
+	}
+
+	private void flushMetrics(int bytes) {
+		if (probe != null) {
+			probe.bytes += bytes;
+			probe.flush();
+		}
+		if (parser != null) {
+			parser.flushMetrics();
+		}
 	}
 
 	State state = new InitialState();
 
 	@Override
 	public void receive(Integer c) {
-		state = state.nextState(c);
+		if (c != null) {
+			receive((char) c.intValue());
+			if (probe != null) {
+				probe.bytes++;
+				probe.tick();
+			}
+		}
+	}
+
+	@Override
+	public void receive(char[] chars, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			if (skipping()) {
+				int j = i;
+				while (j < end && chars[j] != '<') {
+					j++;
+				}
+				position += j - i;
+				i = j;
+				if (i == end) {
+					break;
+				}
+			}
+			receive(chars[i]);
+		}
+		flushMetrics(length);
+	}
+
+	@Override
+	public void receive(ByteBuffer bytes) {
+		int end = bytes.limit();
+		int length = end - bytes.position();
+		for (int i = bytes.position(); i < end; i++) {
+			if (skipping()) {
+				int j = i;
+				while (j < end && bytes.get(j) != '<') {
+					j++;
+				}
+				position += j - i;
+				i = j;
+				if (i == end) {
+					break;
+				}
+			}
+			receive((char) (bytes.get(i) & 0xff));
+		}
+		bytes.position(end);
+		flushMetrics(length);
+	}
+
+	/**
+	 * true when the chars up to the next '<' can be skipped: the parser waits for a
+	 * "<CR>" and no token is being read
+	 */
+	private boolean skipping() {
+		return parser != null && state instanceof InitialState && parser.isSkipping();
+	}
+
+	private void receive(char c) {
+		state = state.next(c);
+		position++;
 		if (state.token != null) {
-			p.receive(state.token);
+			emit(state.token);
 		}
+	}
 
+	/**
+	 * Offset of the next char in the stream
+	 */
+	long position() {
+		return position;
+	}
+
+	private boolean skipped() {
+		return parser != null && parser.isSkipping();
+	}
+
+	private void emit(Token t) {
+		if (parser != null) {
+			if (probe != null && (t == cr || !parser.isSkipping())) {
+				probe.tokens++;
+			}
+			parser.receive(t.code, position - length(t.code), position - 1);
+		} else {
+			if (probe != null) {
+				probe.tokens++;
+			}
+			p.receive(t);
+		}
 	}
 
 }
\ No newline at end of file
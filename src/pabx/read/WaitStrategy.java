@@ -0,0 +1,50 @@
+package pabx.read;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * What a pipeline stage does while its ring is empty (consumer) or full (producer)
+ *
+ * 'spins' is the number of times the stage has already waited for the same slot
+ */
+enum WaitStrategy {
+	/**
+	 * Lowest latency, burns a core per stage
+	 */
+	BUSY_SPIN {
+		@Override
+		void idle(int spins) {
+			Thread.onSpinWait();
+		}
+	},
+	/**
+	 * Spin a little then give the core to the other threads
+	 */
+	YIELD {
+		@Override
+		void idle(int spins) {
+			if (spins < 100) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+		}
+	},
+	/**
+	 * Spin, yield, then sleep for short periods, for when there are more stages than cores
+	 */
+	PARK {
+		@Override
+		void idle(int spins) {
+			if (spins < 100) {
+				Thread.onSpinWait();
+			} else if (spins < 200) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(50000);
+			}
+		}
+	};
+
+	abstract void idle(int spins);
+}